@@ -2,6 +2,7 @@ plugins {
     java
     application
     id("com.mod.cave-adapters")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories {
@@ -33,6 +34,20 @@ tasks.test {
     useJUnitPlatform()
 }
 
+// Benchmarks live in src/jmh; run with ./gradlew jmh, which includes the allocation profiler
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+}
+
+tasks.register<JavaExec>("orderFootprint") {
+    group = "benchmark"
+    description = "Reports the heap retained per live burger order"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("com.mod.ecommerce.statemachine.BurgerOrderFootprint")
+    maxHeapSize = "2g"
+}
+
 java {
     toolchain {
         languageVersion.set(JavaLanguageVersion.of(17))
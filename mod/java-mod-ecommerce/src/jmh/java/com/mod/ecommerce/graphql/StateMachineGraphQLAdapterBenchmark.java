@@ -0,0 +1,122 @@
+package com.mod.ecommerce.graphql;
+
+import com.mod.ecommerce.statemachine.GraphQLStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations per second through the in-process engine: a query and a mutation against the
+ * machines schema, plus a query decoded into a fragment. Documents are served from the parse
+ * cache after the first call, as they are for machine handlers.
+ *
+ * {@code executor=direct} runs data fetchers on the calling thread and measures the engine
+ * alone; {@code executor=pool} adds the hand-off to a fixed pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class StateMachineGraphQLAdapterBenchmark {
+    private static final int MACHINES = 1000;
+
+    private static final GraphQLOperation MACHINE_QUERY = operation("""
+        query Machine($machineId: ID!) {
+            machine(machineId: $machineId) {
+                machineId
+                currentState
+            }
+        }
+    """, "Machine", Map.of("machineId", "machine-500"));
+
+    private static final GraphQLOperation TRANSITION_MUTATION = operation("""
+        mutation Transition($machineId: ID!, $state: String!) {
+            transition(machineId: $machineId, state: $state) {
+                machineId
+                currentState
+            }
+        }
+    """, "Transition", Map.of("machineId", "machine-500", "state", "RUNNING"));
+
+    public static class MachineView {
+        private String machineId;
+        private String currentState;
+
+        public String getMachineId() { return machineId; }
+        public void setMachineId(String machineId) { this.machineId = machineId; }
+        public String getCurrentState() { return currentState; }
+        public void setCurrentState(String currentState) { this.currentState = currentState; }
+    }
+
+    @Param({"direct", "pool"})
+    public String executor;
+
+    private ExecutorService pool;
+    private StateMachineGraphQLAdapter adapter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("pool".equals(executor)) {
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            adapter = new StateMachineGraphQLAdapter(pool);
+        } else {
+            adapter = new StateMachineGraphQLAdapter(Runnable::run);
+        }
+        for (int i = 0; i < MACHINES; i++) {
+            new GraphQLStateMachine<>("machine-" + i, adapter, null, Map.of()).start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public GraphQLResponse<Object> query() {
+        return adapter.<Object>query(MACHINE_QUERY).join();
+    }
+
+    @Benchmark
+    public GraphQLResponse<Object> mutation() {
+        return adapter.<Object>mutate(TRANSITION_MUTATION).join();
+    }
+
+    @Benchmark
+    public GraphQLResponse<MachineView> fragmentQuery() {
+        return adapter.query(MACHINE_QUERY, "machine", MachineView.class).join();
+    }
+
+    private static GraphQLOperation operation(String query, String operationName, Map<String, Object> variables) {
+        return new GraphQLOperation() {
+            @Override
+            public String getQuery() { return query; }
+
+            @Override
+            public Map<String, Object> getVariables() { return variables; }
+
+            @Override
+            public String getOperationName() { return operationName; }
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package com.mod.ecommerce.statemachine;
+
+import com.mod.ecommerce.graphql.StateMachineGraphQLAdapter;
+import graphql.schema.DataFetcher;
+import io.reactivex.rxjava3.core.Flowable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports the heap retained per live burger order. JMH measures time and allocation rather than
+ * retained size, so this is a plain program: {@code ./gradlew orderFootprint}, optionally with
+ * {@code --args=<orders>}.
+ *
+ * Orders run against an in-process stub of the order service and settle in PREPARING, waiting on
+ * a kitchen subscription that never emits, which is where a live order spends most of its time.
+ * The figure covers everything the order keeps reachable: machine, view model and fragments, the
+ * adapter's registry entry, the stateUpdates subscription and the kitchen subscription.
+ */
+public class BurgerOrderFootprint {
+    private static final String ORDER_SERVICE_SDL = """
+        extend type Query {
+            order(id: ID!): Order
+        }
+
+        extend type Mutation {
+            updateOrder(id: ID!, status: String!): Order
+        }
+
+        extend type Subscription {
+            kitchenStatus(orderId: ID!): KitchenStatus
+        }
+
+        type Order {
+            id: ID!
+            status: String
+            items: [OrderItem!]
+            completionTime: String
+        }
+
+        type OrderItem {
+            id: ID!
+            name: String
+            quantity: Int
+        }
+
+        type KitchenStatus {
+            status: String
+            estimatedTime: String
+            currentStep: String
+            nextStep: String
+        }
+    """;
+
+    public static void main(String[] args) {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Map<String, Map<String, DataFetcher<?>>> fetchers = Map.of(
+            "Query", Map.of("order", env -> Map.of(
+                "id", env.getArgument("id"),
+                "status", "NEW",
+                "items", List.of(Map.of("id", "1", "name", "Burger", "quantity", 1)))),
+            "Mutation", Map.of("updateOrder", env -> Map.of(
+                "id", env.getArgument("id"),
+                "status", env.getArgument("status"))),
+            "Subscription", Map.of("kitchenStatus", env -> Flowable.never())
+        );
+        StateMachineGraphQLAdapter adapter = new StateMachineGraphQLAdapter(Runnable::run, ORDER_SERVICE_SDL, fetchers);
+
+        // Warm up the engine and its document cache so they are not counted against the orders
+        BurgerOrderStateMachine warmUp = new BurgerOrderStateMachine(adapter, "warm-up");
+        warmUp.startOrder();
+        warmUp.dispose();
+
+        BurgerOrderStateMachine[] live = new BurgerOrderStateMachine[orders];
+        long before = usedHeapAfterGc();
+        for (int i = 0; i < orders; i++) {
+            live[i] = new BurgerOrderStateMachine(adapter, "order-" + i);
+            live[i].startOrder();
+        }
+        long after = usedHeapAfterGc();
+
+        for (BurgerOrderStateMachine order : live) {
+            if (!"PREPARING".equals(order.getCurrentState())) {
+                throw new IllegalStateException("Order ended in " + order.getCurrentState() + ", not PREPARING");
+            }
+        }
+        System.out.printf("%d live orders retain %.1f MB, %d bytes per order%n",
+            orders, (after - before) / (1024.0 * 1024.0), (after - before) / orders);
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,61 @@
+package com.mod.ecommerce.statemachine;
+
+import com.mod.ecommerce.graphql.StateMachineGraphQLAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Cost of one transition through {@link GraphQLStateMachine#transition}, handler dispatch
+ * included. Run with {@code -prof gc}: {@code gc.alloc.rate.norm} should stay at 0 B/op, since
+ * the context and its callbacks are created once per machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphQLStateMachineBenchmark {
+    public static class Counters {
+        private long entered;
+    }
+
+    private static final Map<String, Consumer<GraphQLStateMachine.StateContext<Counters>>> HANDLERS = Map.of(
+        "PING", context -> context.getViewModel().entered++,
+        "PONG", context -> context.getViewModel().entered++
+    );
+
+    private GraphQLStateMachine<Counters> machine;
+    private boolean ping;
+
+    @Setup
+    public void setUp() {
+        machine = new GraphQLStateMachine<>("benchmark", new StateMachineGraphQLAdapter(Runnable::run),
+            new Counters(), HANDLERS);
+    }
+
+    @Benchmark
+    public long transition() {
+        ping = !ping;
+        machine.transition(ping ? "PING" : "PONG");
+        return machine.getViewModel().entered;
+    }
+
+    @Benchmark
+    public long unhandledTransition() {
+        ping = !ping;
+        machine.transition(ping ? "IDLE" : "WAITING");
+        return machine.getViewModel().entered;
+    }
+}
@@ -1,12 +1,34 @@
 package com.mod.ecommerce;
 
+import com.mod.ecommerce.webhook.DeliveryDeduplicator;
 import com.mod.ecommerce.webhook.TipTopJarWebhookHandler;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import com.mod.ecommerce.aggregates.DonationAggregates;
+import com.mod.ecommerce.api.AggregatesHandler;
+import com.mod.ecommerce.api.ConfigAnalysisHandler;
+import com.mod.ecommerce.api.ExportHandler;
 import com.mod.ecommerce.api.RedeemHandler;
+import com.mod.ecommerce.api.StateTreeHandler;
+import com.mod.ecommerce.backoff.BackoffStore;
+import com.mod.ecommerce.backoff.DatabaseBackoffStore;
+import com.mod.ecommerce.backoff.TimingWheelBackoffStore;
 import com.mod.ecommerce.database.DatabaseManager;
+import com.mod.ecommerce.database.DonationBatchWriter;
+import com.mod.ecommerce.database.DonationClaimer;
+import com.mod.ecommerce.database.DonationExporter;
+import com.mod.ecommerce.database.DonationIngester;
+import com.mod.ecommerce.database.DonationWriteAheadLog;
+import com.mod.ecommerce.database.UnredeemedCache;
+import com.mod.ecommerce.statemachine.analyzer.StateMachineAnalyzer;
+import com.mod.ecommerce.statemachine.analyzer.TransitionJournal;
+import io.opentelemetry.api.GlobalOpenTelemetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
 
 public class Application {
     private static final Logger logger = LoggerFactory.getLogger(Application.class);
@@ -17,10 +39,101 @@ public class Application {
         // Initialize database
         DatabaseManager dbManager = new DatabaseManager();
         dbManager.initialize();
+        // Running donation totals; must subscribe before any donation is inserted or redeemed
+        DonationAggregates aggregates;
+        try {
+            aggregates = new DonationAggregates(
+                dbManager,
+                Integer.parseInt(System.getenv().getOrDefault("AGGREGATES_BUCKET_MINUTES", "1440")),
+                Long.parseLong(System.getenv().getOrDefault("AGGREGATES_CHECKPOINT_MS", "60000"))
+            );
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to load donation aggregates", e);
+        }
+        DeliveryDeduplicator deduplicator;
+        try {
+            deduplicator = new DeliveryDeduplicator(
+                dbManager,
+                Long.parseLong(System.getenv().getOrDefault("WEBHOOK_DEDUP_EXPECTED_KEYS", "1000000")),
+                Integer.parseInt(System.getenv().getOrDefault("WEBHOOK_DEDUP_RECENT_KEYS", "100000"))
+            );
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to load webhook idempotency keys", e);
+        }
+        // Webhook ingestion: group-committed straight to H2, or acknowledged from a local log
+        DonationIngester ingester;
+        if ("wal".equals(System.getenv("INGEST_MODE"))) {
+            try {
+                ingester = new DonationWriteAheadLog(
+                    dbManager,
+                    Paths.get(System.getenv().getOrDefault("INGEST_WAL_DIR", "./data/ingest-wal")),
+                    64L * 1024 * 1024,
+                    Integer.parseInt(System.getenv().getOrDefault("INGEST_WAL_APPLY_BATCH", "2000")),
+                    10_000
+                );
+            } catch (IOException | SQLException e) {
+                throw new RuntimeException("Failed to open ingest log", e);
+            }
+        } else {
+            ingester = new DonationBatchWriter(
+                dbManager,
+                Integer.parseInt(System.getenv().getOrDefault("WEBHOOK_BATCH_SIZE", "256")),
+                Duration.ofMillis(Long.parseLong(System.getenv().getOrDefault("WEBHOOK_BATCH_DELAY_MS", "5"))),
+                10_000
+            );
+        }
+        // Opt-in: the cache decides redemptions in memory, so it is only safe on a single node
+        boolean sharedBackoff = "database".equals(System.getenv("BACKOFF_STORE"));
+        DonationClaimer claimer = dbManager;
+        boolean cacheEnabled = "true".equals(System.getenv("REDEEM_CACHE_ENABLED"));
+        if (cacheEnabled && sharedBackoff) {
+            logger.warn("REDEEM_CACHE_ENABLED ignored: BACKOFF_STORE=database means several nodes redeem "
+                + "from the same database, redeeming directly from the database");
+        } else if (cacheEnabled) {
+            try {
+                claimer = new UnredeemedCache(
+                    dbManager,
+                    Integer.parseInt(System.getenv().getOrDefault("REDEEM_CACHE_MAX_TIPPERS", "10000")),
+                    Paths.get(System.getenv().getOrDefault("REDEEM_CACHE_LOG", "./data/redemptions.log"))
+                );
+            } catch (IOException | SQLException e) {
+                logger.error("Failed to start redeem cache, redeeming directly from the database", e);
+            }
+        }
+        // Redeem backoff; the database store shares windows across instances behind a load balancer
+        BackoffStore backoffStore = sharedBackoff
+            ? new DatabaseBackoffStore(dbManager.getPool(), 60_000)
+            : new TimingWheelBackoffStore(1000, 128,
+                Integer.parseInt(System.getenv().getOrDefault("BACKOFF_MAX_ENTRIES", "1000000")));
+        
+        // Initialize state machine analyzer
+        StateMachineAnalyzer analyzer = new StateMachineAnalyzer(
+            GlobalOpenTelemetry.getTracer("java-mod-ecommerce"),
+            System.getenv("ANALYZER_BACKEND_URL")
+        );
+        String journalDir = System.getenv("ANALYZER_JOURNAL_DIR");
+        if (journalDir != null) {
+            try {
+                TransitionJournal journal = new TransitionJournal(
+                    Paths.get(journalDir), 64 * 1024 * 1024, 1024L * 1024 * 1024, Duration.ofDays(7));
+                analyzer.replay(journal);
+                analyzer.setJournal(journal);
+            } catch (IOException e) {
+                logger.error("Failed to open transition journal in {}", journalDir, e);
+            }
+        }
         
         // Create handlers
-        TipTopJarWebhookHandler webhookHandler = new TipTopJarWebhookHandler(dbManager);
-        RedeemHandler redeemHandler = new RedeemHandler(dbManager);
+        TipTopJarWebhookHandler webhookHandler = new TipTopJarWebhookHandler(ingester, deduplicator);
+        RedeemHandler redeemHandler = new RedeemHandler(claimer, backoffStore);
+        StateTreeHandler stateTreeHandler = new StateTreeHandler(analyzer);
+        ConfigAnalysisHandler configAnalysisHandler = new ConfigAnalysisHandler(analyzer.getConfigAnalyzer());
+        AggregatesHandler aggregatesHandler = new AggregatesHandler(aggregates);
+        ExportHandler exportHandler = new ExportHandler(new DonationExporter(
+            dbManager.getPool(),
+            Integer.parseInt(System.getenv().getOrDefault("EXPORT_PAGE_SIZE", "10000")),
+            Integer.parseInt(System.getenv().getOrDefault("EXPORT_FETCH_SIZE", "1000"))
+        ));
         
         // Create Javalin app
         Javalin app = Javalin.create(config -> {
@@ -40,6 +153,19 @@ public class Application {
         // Redeem endpoint
         app.post("/api/donations/redeem", redeemHandler::handle);
         
+        // Streaming donations export
+        app.get("/api/donations/export", exportHandler::handle);
+        
+        // Donation aggregates; the fixed path is registered before the path parameter
+        app.get("/api/aggregates/minutes", aggregatesHandler::handleMinutes);
+        app.get("/api/aggregates/{dimension}", aggregatesHandler::handleTotals);
+        
+        // State machine debug endpoint
+        app.get("/debug/state-tree", stateTreeHandler::handle);
+        
+        // Machine config validation
+        app.post("/debug/config-analysis", configAnalysisHandler::handle);
+        
         app.start(port);
         logger.info("java-mod-ecommerce started on port {}", port);
     }
@@ -0,0 +1,369 @@
+package com.mod.ecommerce.aggregates;
+
+import com.mod.ecommerce.database.ConnectionPool;
+import com.mod.ecommerce.database.DatabaseManager;
+import com.mod.ecommerce.database.Donation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Donation totals maintained as donations are inserted and redeemed, so reporting never scans
+ * the donations table.
+ *
+ * Totals are kept per recipient, per tenant and per currency, always split by currency so sums
+ * never mix units. Amounts are held as cents in {@link LongAdder}s. Inserted donations are also
+ * counted into a ring of per-minute buckets per currency, keyed by the donation timestamp.
+ *
+ * The totals are checkpointed to H2 with the highest donation id and the time they cover. On
+ * startup the checkpoint is loaded and only donations inserted or redeemed after it are replayed.
+ * A checkpoint is not an atomic cut, so rows changing while one is taken can be counted twice
+ * after a restart. The minute buckets are not checkpointed and start empty.
+ */
+public class DonationAggregates implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DonationAggregates.class);
+    public static final String RECIPIENT = "recipient";
+    public static final String TENANT = "tenant";
+    public static final String CURRENCY = "currency";
+    private static final String NO_TENANT = "";
+    private static final int CATCH_UP_FETCH_SIZE = 1000;
+
+    private static final String LOAD_TOTALS = """
+        SELECT dimension, dimension_value, currency, donation_count, amount_cents,
+               redeemed_count, redeemed_cents
+        FROM donation_aggregates
+    """;
+    private static final String LOAD_CHECKPOINT = """
+        SELECT last_donation_id, checkpoint_at_ms FROM aggregate_checkpoint WHERE id = 1
+    """;
+    private static final String INSERTED_SINCE = """
+        SELECT id, recipient_account, currency, tenant_id, amount, timestamp_ms, redeemed_at
+        FROM donations WHERE id > ?
+    """;
+    // No index serves redeemed_at since idx_redeemed was dropped; this scans once per startup
+    private static final String REDEEMED_SINCE = """
+        SELECT recipient_account, currency, tenant_id, amount
+        FROM donations WHERE redeemed_at > ? AND id <= ?
+    """;
+    private static final String SAVE_TOTALS = """
+        MERGE INTO donation_aggregates (
+            dimension, dimension_value, currency, donation_count, amount_cents,
+            redeemed_count, redeemed_cents
+        ) KEY (dimension, dimension_value, currency) VALUES (?, ?, ?, ?, ?, ?, ?)
+    """;
+    private static final String SAVE_CHECKPOINT = """
+        MERGE INTO aggregate_checkpoint (id, last_donation_id, checkpoint_at_ms)
+        KEY (id) VALUES (1, ?, ?)
+    """;
+
+    private final ConnectionPool pool;
+    private final int bucketMinutes;
+    private final Map<String, Totals> totals = new ConcurrentHashMap<>();
+    private final Map<String, MinuteBuckets> minuteBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastDonationId = new AtomicLong();
+    private final ScheduledExecutorService checkpointer;
+
+    /**
+     * Running totals for one dimension value in one currency.
+     */
+    public static class Totals {
+        private final String dimension;
+        private final String value;
+        private final String currency;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder amountCents = new LongAdder();
+        private final LongAdder redeemedCount = new LongAdder();
+        private final LongAdder redeemedCents = new LongAdder();
+
+        Totals(String dimension, String value, String currency) {
+            this.dimension = dimension;
+            this.value = value;
+            this.currency = currency;
+        }
+
+        public String getDimension() { return dimension; }
+        public String getValue() { return value; }
+        public String getCurrency() { return currency; }
+        public long getCount() { return count.sum(); }
+        public BigDecimal getAmount() { return BigDecimal.valueOf(amountCents.sum(), 2); }
+        public long getRedeemedCount() { return redeemedCount.sum(); }
+        public BigDecimal getRedeemedAmount() { return BigDecimal.valueOf(redeemedCents.sum(), 2); }
+    }
+
+    public static class MinuteTotal {
+        private final long minuteStartMs;
+        private final long count;
+        private final BigDecimal amount;
+
+        public MinuteTotal(long minuteStartMs, long count, BigDecimal amount) {
+            this.minuteStartMs = minuteStartMs;
+            this.count = count;
+            this.amount = amount;
+        }
+
+        public long getMinuteStartMs() { return minuteStartMs; }
+        public long getCount() { return count; }
+        public BigDecimal getAmount() { return amount; }
+    }
+
+    // Ring of the most recent minutes; a slot is reset when a new minute lands on it
+    private static class MinuteBuckets {
+        private final long[] minutes;
+        private final long[] counts;
+        private final long[] cents;
+
+        MinuteBuckets(int size) {
+            minutes = new long[size];
+            counts = new long[size];
+            cents = new long[size];
+        }
+
+        synchronized void add(long minute, long amountCents) {
+            int slot = (int) Math.floorMod(minute, (long) minutes.length);
+            if (minutes[slot] != minute) {
+                if (minutes[slot] > minute) {
+                    return; // older than the ring covers
+                }
+                minutes[slot] = minute;
+                counts[slot] = 0;
+                cents[slot] = 0;
+            }
+            counts[slot]++;
+            cents[slot] += amountCents;
+        }
+
+        synchronized List<MinuteTotal> recent(long currentMinute, int count) {
+            List<MinuteTotal> recent = new ArrayList<>(count);
+            for (long minute = currentMinute - count + 1; minute <= currentMinute; minute++) {
+                int slot = (int) Math.floorMod(minute, (long) minutes.length);
+                boolean present = minutes[slot] == minute;
+                recent.add(new MinuteTotal(minute * 60_000,
+                    present ? counts[slot] : 0, BigDecimal.valueOf(present ? cents[slot] : 0, 2)));
+            }
+            return recent;
+        }
+    }
+
+    /**
+     * Loads the last checkpoint, replays what changed since, and starts tracking.
+     *
+     * @param bucketMinutes      minutes of per-minute history kept per currency
+     * @param checkpointInterval milliseconds between checkpoints
+     */
+    public DonationAggregates(DatabaseManager dbManager, int bucketMinutes, long checkpointInterval) throws SQLException {
+        this.pool = dbManager.getPool();
+        this.bucketMinutes = bucketMinutes;
+        dbManager.addInsertListener(donations -> donations.forEach(this::onInserted));
+        dbManager.addRedeemListener(this::onRedeemed);
+        // Listeners are attached first so nothing committed during the catch-up is missed
+        recover();
+
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aggregates-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.checkpointer.scheduleWithFixedDelay(this::checkpointQuietly,
+            checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void onInserted(Donation donation) {
+        if (donation.getId() != null) {
+            lastDonationId.accumulateAndGet(donation.getId(), Math::max);
+        }
+        long cents = toCents(donation.getAmount());
+        String currency = donation.getCurrency();
+        for (Totals t : totalsFor(donation.getRecipientAccount(), donation.getTenantId(), currency)) {
+            t.count.increment();
+            t.amountCents.add(cents);
+        }
+        minuteBuckets.computeIfAbsent(currency, c -> new MinuteBuckets(bucketMinutes))
+            .add(donation.getTimestampMs() / 60_000, cents);
+    }
+
+    private void onRedeemed(Donation donation) {
+        long cents = toCents(donation.getAmount());
+        for (Totals t : totalsFor(donation.getRecipientAccount(), donation.getTenantId(), donation.getCurrency())) {
+            t.redeemedCount.increment();
+            t.redeemedCents.add(cents);
+        }
+    }
+
+    private Totals[] totalsFor(String recipient, String tenant, String currency) {
+        return new Totals[] {
+            totals(RECIPIENT, recipient, currency),
+            totals(TENANT, tenant != null ? tenant : NO_TENANT, currency),
+            totals(CURRENCY, currency, currency)
+        };
+    }
+
+    private Totals totals(String dimension, String value, String currency) {
+        return totals.computeIfAbsent(dimension + '\u0000' + value + '\u0000' + currency,
+            key -> new Totals(dimension, value, currency));
+    }
+
+    /**
+     * Totals for one dimension, largest amount first; {@code value} narrows to a single value.
+     */
+    public List<Totals> getTotals(String dimension, String value) {
+        List<Totals> rows = new ArrayList<>();
+        for (Totals t : totals.values()) {
+            if (t.dimension.equals(dimension) && (value == null || t.value.equals(value))) {
+                rows.add(t);
+            }
+        }
+        rows.sort(Comparator.comparing(Totals::getAmount).reversed());
+        return rows;
+    }
+
+    /**
+     * Per-minute donation counts and amounts for the most recent minutes, oldest first.
+     */
+    public List<MinuteTotal> getRecentMinutes(String currency, int minutes) {
+        int count = Math.min(minutes, bucketMinutes);
+        MinuteBuckets buckets = minuteBuckets.get(currency);
+        long currentMinute = System.currentTimeMillis() / 60_000;
+        return buckets != null ? buckets.recent(currentMinute, count) : new MinuteBuckets(1).recent(currentMinute, count);
+    }
+
+    public int getBucketMinutes() {
+        return bucketMinutes;
+    }
+
+    private void recover() throws SQLException {
+        long checkpointId = 0;
+        long checkpointAtMs = 0;
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            try (ResultSet rs = conn.prepare(LOAD_TOTALS).executeQuery()) {
+                while (rs.next()) {
+                    Totals t = totals(rs.getString(1), rs.getString(2), rs.getString(3));
+                    t.count.add(rs.getLong(4));
+                    t.amountCents.add(rs.getLong(5));
+                    t.redeemedCount.add(rs.getLong(6));
+                    t.redeemedCents.add(rs.getLong(7));
+                }
+            }
+            try (ResultSet rs = conn.prepare(LOAD_CHECKPOINT).executeQuery()) {
+                if (rs.next()) {
+                    checkpointId = rs.getLong(1);
+                    checkpointAtMs = rs.getLong(2);
+                }
+            }
+            lastDonationId.accumulateAndGet(checkpointId, Math::max);
+
+            long inserted = 0;
+            PreparedStatement insertedSince = conn.prepare(INSERTED_SINCE);
+            insertedSince.setFetchSize(CATCH_UP_FETCH_SIZE);
+            insertedSince.setLong(1, checkpointId);
+            try (ResultSet rs = insertedSince.executeQuery()) {
+                while (rs.next()) {
+                    Donation d = new Donation();
+                    d.setId(rs.getLong("id"));
+                    d.setRecipientAccount(rs.getString("recipient_account"));
+                    d.setCurrency(rs.getString("currency"));
+                    d.setTenantId(rs.getString("tenant_id"));
+                    d.setAmount(rs.getBigDecimal("amount"));
+                    d.setTimestampMs(rs.getLong("timestamp_ms"));
+                    onInserted(d);
+                    if (rs.getTimestamp("redeemed_at") != null) {
+                        onRedeemed(d);
+                    }
+                    inserted++;
+                }
+            }
+
+            long redeemed = 0;
+            PreparedStatement redeemedSince = conn.prepare(REDEEMED_SINCE);
+            redeemedSince.setFetchSize(CATCH_UP_FETCH_SIZE);
+            redeemedSince.setTimestamp(1, new Timestamp(checkpointAtMs));
+            redeemedSince.setLong(2, checkpointId);
+            try (ResultSet rs = redeemedSince.executeQuery()) {
+                while (rs.next()) {
+                    Donation d = new Donation();
+                    d.setRecipientAccount(rs.getString("recipient_account"));
+                    d.setCurrency(rs.getString("currency"));
+                    d.setTenantId(rs.getString("tenant_id"));
+                    d.setAmount(rs.getBigDecimal("amount"));
+                    onRedeemed(d);
+                    redeemed++;
+                }
+            }
+            logger.info("Donation aggregates loaded from checkpoint {} plus {} inserts and {} redemptions",
+                checkpointId, inserted, redeemed);
+        }
+    }
+
+    /**
+     * Writes every total and the covered donation id to H2 in one transaction.
+     */
+    public void checkpoint() throws SQLException {
+        long checkpointAtMs = System.currentTimeMillis();
+        long coveredId = lastDonationId.get();
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            Connection connection = conn.getConnection();
+            PreparedStatement saveTotals = conn.prepare(SAVE_TOTALS);
+            PreparedStatement saveCheckpoint = conn.prepare(SAVE_CHECKPOINT);
+            connection.setAutoCommit(false);
+            try {
+                for (Totals t : totals.values()) {
+                    saveTotals.setString(1, t.dimension);
+                    saveTotals.setString(2, t.value);
+                    saveTotals.setString(3, t.currency);
+                    saveTotals.setLong(4, t.count.sum());
+                    saveTotals.setLong(5, t.amountCents.sum());
+                    saveTotals.setLong(6, t.redeemedCount.sum());
+                    saveTotals.setLong(7, t.redeemedCents.sum());
+                    saveTotals.addBatch();
+                }
+                saveTotals.executeBatch();
+                saveCheckpoint.setLong(1, coveredId);
+                saveCheckpoint.setLong(2, checkpointAtMs);
+                saveCheckpoint.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                saveTotals.clearBatch();
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (SQLException e) {
+            logger.warn("Failed to checkpoint donation aggregates", e);
+        }
+    }
+
+    private static long toCents(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Stops periodic checkpoints and writes a final one.
+     */
+    @Override
+    public void close() {
+        checkpointer.shutdownNow();
+        checkpointQuietly();
+    }
+}
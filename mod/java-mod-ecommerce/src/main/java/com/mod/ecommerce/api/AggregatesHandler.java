@@ -0,0 +1,77 @@
+package com.mod.ecommerce.api;
+
+import com.mod.ecommerce.aggregates.DonationAggregates;
+import io.javalin.http.Context;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class AggregatesHandler {
+    private static final Set<String> DIMENSIONS = Set.of(
+        DonationAggregates.RECIPIENT, DonationAggregates.TENANT, DonationAggregates.CURRENCY);
+    private static final int DEFAULT_MINUTES = 60;
+    private final DonationAggregates aggregates;
+
+    public AggregatesHandler(DonationAggregates aggregates) {
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * GET /api/aggregates/{dimension}?value= - totals per recipient, tenant or currency.
+     */
+    public void handleTotals(Context ctx) {
+        String dimension = ctx.pathParam("dimension");
+        if (!DIMENSIONS.contains(dimension)) {
+            ctx.status(400).json(Map.of("error", "dimension must be one of recipient, tenant, currency"));
+            return;
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (DonationAggregates.Totals totals : aggregates.getTotals(dimension, ctx.queryParam("value"))) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("value", totals.getValue());
+            row.put("currency", totals.getCurrency());
+            row.put("count", totals.getCount());
+            row.put("amount", totals.getAmount());
+            row.put("redeemed_count", totals.getRedeemedCount());
+            row.put("redeemed_amount", totals.getRedeemedAmount());
+            rows.add(row);
+        }
+        ctx.json(Map.of("dimension", dimension, "totals", rows));
+    }
+
+    /**
+     * GET /api/aggregates/minutes?currency=&minutes= - per-minute totals, oldest first.
+     */
+    public void handleMinutes(Context ctx) {
+        String currency = ctx.queryParam("currency");
+        if (currency == null || currency.isBlank()) {
+            ctx.status(400).json(Map.of("error", "Missing required parameter: currency"));
+            return;
+        }
+        int minutes;
+        try {
+            String minutesParam = ctx.queryParam("minutes");
+            minutes = minutesParam != null ? Integer.parseInt(minutesParam) : DEFAULT_MINUTES;
+        } catch (NumberFormatException e) {
+            ctx.status(400).json(Map.of("error", "minutes must be an integer"));
+            return;
+        }
+        if (minutes <= 0 || minutes > aggregates.getBucketMinutes()) {
+            ctx.status(400).json(Map.of("error", "minutes must be between 1 and " + aggregates.getBucketMinutes()));
+            return;
+        }
+
+        List<Map<String, Object>> buckets = new ArrayList<>();
+        for (DonationAggregates.MinuteTotal minute : aggregates.getRecentMinutes(currency, minutes)) {
+            buckets.add(Map.of(
+                "minute_start_ms", minute.getMinuteStartMs(),
+                "count", minute.getCount(),
+                "amount", minute.getAmount()
+            ));
+        }
+        ctx.json(Map.of("currency", currency, "minutes", buckets));
+    }
+}
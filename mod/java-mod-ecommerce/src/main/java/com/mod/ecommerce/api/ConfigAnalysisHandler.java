@@ -0,0 +1,49 @@
+package com.mod.ecommerce.api;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mod.ecommerce.statemachine.analyzer.ConfigAnalysis;
+import com.mod.ecommerce.statemachine.analyzer.ConfigAnalyzer;
+import io.javalin.http.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.Map;
+
+/**
+ * Validates a posted machine config, e.g. as a deploy gate for tome configs. Responds 200 when
+ * the config is clean and 422 with the findings otherwise.
+ */
+public class ConfigAnalysisHandler {
+    private static final Logger logger = LoggerFactory.getLogger(ConfigAnalysisHandler.class);
+    private static final TypeReference<Map<String, Object>> CONFIG_TYPE = new TypeReference<>() {};
+    private final ConfigAnalyzer configAnalyzer;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    public ConfigAnalysisHandler(ConfigAnalyzer configAnalyzer) {
+        this.configAnalyzer = configAnalyzer;
+    }
+    
+    public void handle(Context ctx) {
+        Map<String, Object> config;
+        try {
+            config = objectMapper.readValue(ctx.body(), CONFIG_TYPE);
+        } catch (Exception e) {
+            ctx.status(400).json(Map.of("error", "Invalid machine config: " + e.getMessage()));
+            return;
+        }
+        
+        try {
+            ConfigAnalysis analysis = configAnalyzer.analyze(config);
+            ctx.status(analysis.isValid() ? 200 : 422).json(Map.of(
+                "configHash", analysis.getConfigHash(),
+                "valid", analysis.isValid(),
+                "problems", analysis.getProblems(),
+                "reachableStates", analysis.getReachableStates(),
+                "eventAlphabet", analysis.getEventAlphabet()
+            ));
+        } catch (Exception e) {
+            logger.error("Error analysing machine config", e);
+            ctx.status(500).json(Map.of("error", "Internal server error"));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.mod.ecommerce.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mod.ecommerce.database.Donation;
+import com.mod.ecommerce.database.DonationExporter;
+import io.javalin.http.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Map;
+
+public class ExportHandler {
+    private static final Logger logger = LoggerFactory.getLogger(ExportHandler.class);
+    private static final String CSV_HEADER =
+        "id,tipper_name,recipient_account,amount,currency,timestamp_ms,created_at,redeemed_at,redeemed_by_name,tenant_id\n";
+    private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+    private final DonationExporter exporter;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ExportHandler(DonationExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    /**
+     * GET /api/donations/export?format=ndjson|csv&tenant=&recipient=&redeemed=true|false&after=ts:id
+     *
+     * Rows are written as they are read, in (timestamp_ms, id) order. {@code after} resumes an
+     * interrupted export from the last row received.
+     */
+    public void handle(Context ctx) {
+        String format = ctx.queryParam("format") != null ? ctx.queryParam("format") : "ndjson";
+        if (!format.equals("ndjson") && !format.equals("csv")) {
+            ctx.status(400).json(Map.of("error", "format must be ndjson or csv"));
+            return;
+        }
+        String redeemedParam = ctx.queryParam("redeemed");
+        if (redeemedParam != null && !redeemedParam.equals("true") && !redeemedParam.equals("false")) {
+            ctx.status(400).json(Map.of("error", "redeemed must be true or false"));
+            return;
+        }
+        long afterTimestampMs = Long.MIN_VALUE;
+        long afterId = 0;
+        String after = ctx.queryParam("after");
+        if (after != null) {
+            int colon = after.indexOf(':');
+            try {
+                afterTimestampMs = Long.parseLong(after.substring(0, colon));
+                afterId = Long.parseLong(after.substring(colon + 1));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                ctx.status(400).json(Map.of("error", "after must be <timestamp_ms>:<id>"));
+                return;
+            }
+        }
+        DonationExporter.Filter filter = new DonationExporter.Filter(
+            ctx.queryParam("tenant"),
+            ctx.queryParam("recipient"),
+            redeemedParam != null ? Boolean.valueOf(redeemedParam) : null
+        );
+
+        // No content length is set, so the export is sent chunked as it is written
+        ctx.contentType(format.equals("csv") ? "text/csv; charset=utf-8" : "application/x-ndjson");
+        try {
+            OutputStream out = ctx.outputStream();
+            long rows = format.equals("csv")
+                ? exportCsv(out, filter, afterTimestampMs, afterId)
+                : exportNdjson(out, filter, afterTimestampMs, afterId);
+            logger.info("Exported {} donations as {}", rows, format);
+        } catch (Exception e) {
+            // The status is already sent; the client sees a truncated body and can resume with after
+            logger.error("Error streaming donation export", e);
+        }
+    }
+
+    private long exportNdjson(OutputStream out, DonationExporter.Filter filter, long afterTimestampMs, long afterId)
+            throws Exception {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            long rows = exporter.export(filter, afterTimestampMs, afterId, d -> {
+                json.writeStartObject();
+                json.writeNumberField("id", d.getId());
+                json.writeStringField("tipper_name", d.getTipperName());
+                json.writeStringField("recipient_account", d.getRecipientAccount());
+                json.writeNumberField("amount", d.getAmount());
+                json.writeStringField("currency", d.getCurrency());
+                json.writeNumberField("timestamp_ms", d.getTimestampMs());
+                writeTimestamp(json, "created_at", d.getCreatedAt());
+                writeTimestamp(json, "redeemed_at", d.getRedeemedAt());
+                json.writeStringField("redeemed_by_name", d.getRedeemedByName());
+                json.writeStringField("tenant_id", d.getTenantId());
+                json.writeEndObject();
+                json.writeRaw('\n');
+            });
+            json.flush();
+            return rows;
+        }
+    }
+
+    private static void writeTimestamp(JsonGenerator json, String field, Timestamp timestamp) throws IOException {
+        if (timestamp != null) {
+            json.writeNumberField(field, timestamp.getTime());
+        } else {
+            json.writeNullField(field);
+        }
+    }
+
+    private long exportCsv(OutputStream out, DonationExporter.Filter filter, long afterTimestampMs, long afterId)
+            throws Exception {
+        Writer csv = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_CHARS);
+        csv.write(CSV_HEADER);
+        long rows = exporter.export(filter, afterTimestampMs, afterId, d -> writeCsvRow(csv, d));
+        csv.flush();
+        return rows;
+    }
+
+    private static void writeCsvRow(Writer csv, Donation d) throws IOException {
+        csv.write(String.valueOf(d.getId()));
+        csv.write(',');
+        writeCsvField(csv, d.getTipperName());
+        csv.write(',');
+        writeCsvField(csv, d.getRecipientAccount());
+        csv.write(',');
+        csv.write(d.getAmount().toPlainString());
+        csv.write(',');
+        writeCsvField(csv, d.getCurrency());
+        csv.write(',');
+        csv.write(String.valueOf(d.getTimestampMs()));
+        csv.write(',');
+        if (d.getCreatedAt() != null) {
+            csv.write(String.valueOf(d.getCreatedAt().getTime()));
+        }
+        csv.write(',');
+        if (d.getRedeemedAt() != null) {
+            csv.write(String.valueOf(d.getRedeemedAt().getTime()));
+        }
+        csv.write(',');
+        writeCsvField(csv, d.getRedeemedByName());
+        csv.write(',');
+        writeCsvField(csv, d.getTenantId());
+        csv.write('\n');
+    }
+
+    // RFC 4180 quoting; a null is an empty field
+    private static void writeCsvField(Writer csv, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            csv.write(value);
+            return;
+        }
+        csv.write('"');
+        csv.write(value.replace("\"", "\"\""));
+        csv.write('"');
+    }
+}
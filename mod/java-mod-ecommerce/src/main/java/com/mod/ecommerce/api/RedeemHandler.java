@@ -1,7 +1,8 @@
 package com.mod.ecommerce.api;
 
-import com.mod.ecommerce.database.DatabaseManager;
+import com.mod.ecommerce.backoff.BackoffStore;
 import com.mod.ecommerce.database.Donation;
+import com.mod.ecommerce.database.DonationClaimer;
 import io.javalin.http.Context;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
@@ -10,18 +11,17 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class RedeemHandler {
     private static final Logger logger = LoggerFactory.getLogger(RedeemHandler.class);
-    private final DatabaseManager dbManager;
+    private final DonationClaimer claimer;
+    private final BackoffStore backoffStore;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    // Track last redeem time per name for backoff enforcement
-    private final Map<String, Long> lastRedeemTime = new ConcurrentHashMap<>();
     private static final long BACKOFF_MS = 60_000; // 1 minute
     
-    public RedeemHandler(DatabaseManager dbManager) {
-        this.dbManager = dbManager;
+    public RedeemHandler(DonationClaimer claimer, BackoffStore backoffStore) {
+        this.claimer = claimer;
+        this.backoffStore = backoffStore;
     }
     
     public void handle(Context ctx) {
@@ -36,27 +36,31 @@ public class RedeemHandler {
             
             name = name.trim();
             
-            // Check backoff
-            Long lastRedeem = lastRedeemTime.get(name);
-            if (lastRedeem != null) {
-                long elapsed = System.currentTimeMillis() - lastRedeem;
-                if (elapsed < BACKOFF_MS) {
-                    long remainingSeconds = (BACKOFF_MS - elapsed) / 1000;
-                    ctx.status(429)
-                        .header("Retry-After", String.valueOf(remainingSeconds))
-                        .json(Map.of(
-                            "error", "Backoff period active",
-                            "backoff_seconds", remainingSeconds,
-                            "message", "Please wait " + remainingSeconds + " seconds before redeeming again"
-                        ));
-                    return;
-                }
+            // Check backoff; the window starts now so concurrent redeems for a name cannot both pass
+            long remainingMs = backoffStore.tryAcquire(name, BACKOFF_MS);
+            if (remainingMs > 0) {
+                long remainingSeconds = remainingMs / 1000;
+                ctx.status(429)
+                    .header("Retry-After", String.valueOf(remainingSeconds))
+                    .json(Map.of(
+                        "error", "Backoff period active",
+                        "backoff_seconds", remainingSeconds,
+                        "message", "Please wait " + remainingSeconds + " seconds before redeeming again"
+                    ));
+                return;
             }
             
-            // Find unredeemed donation
-            Optional<Donation> donationOpt = dbManager.findUnredeemedDonation(name);
+            // Claim the oldest unredeemed donation atomically; no redeem means no backoff
+            Optional<Donation> donationOpt;
+            try {
+                donationOpt = claimer.claimOldestUnredeemed(name, name);
+            } catch (SQLException | RuntimeException e) {
+                backoffStore.release(name);
+                throw e;
+            }
             
             if (donationOpt.isEmpty()) {
+                backoffStore.release(name);
                 ctx.status(404).json(Map.of(
                     "success", false,
                     "message", "No unredeemed donation found for name: " + name
@@ -66,12 +70,6 @@ public class RedeemHandler {
             
             Donation donation = donationOpt.get();
             
-            // Mark as redeemed
-            dbManager.markAsRedeemed(donation.getId(), name);
-            
-            // Update last redeem time
-            lastRedeemTime.put(name, System.currentTimeMillis());
-            
             logger.info("Donation {} redeemed by {}", donation.getId(), name);
             
             ctx.status(200)
@@ -0,0 +1,55 @@
+package com.mod.ecommerce.api;
+
+import com.mod.ecommerce.statemachine.analyzer.StateMachineAnalyzer;
+import io.javalin.http.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class StateTreeHandler {
+    private static final Logger logger = LoggerFactory.getLogger(StateTreeHandler.class);
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+    private final StateMachineAnalyzer analyzer;
+    
+    public StateTreeHandler(StateMachineAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+    
+    public void handle(Context ctx) {
+        int limit;
+        try {
+            String limitParam = ctx.queryParam("limit");
+            limit = limitParam != null ? Integer.parseInt(limitParam) : DEFAULT_LIMIT;
+        } catch (NumberFormatException e) {
+            ctx.status(400).json(Map.of("error", "limit must be an integer"));
+            return;
+        }
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            ctx.status(400).json(Map.of("error", "limit must be between 1 and " + MAX_LIMIT));
+            return;
+        }
+        
+        // No content length is set, so the page is sent chunked as it is written
+        ctx.contentType("text/plain; charset=utf-8");
+        try {
+            OutputStream out = ctx.outputStream();
+            String nextCursor = analyzer.writeStateTree(
+                out,
+                ctx.queryParam("prefix"),
+                ctx.queryParam("state"),
+                ctx.queryParam("cursor"),
+                limit
+            );
+            // The cursor is only known once the page is written, so it goes at the end of the body
+            if (nextCursor != null) {
+                out.write(("\nNext Cursor: " + nextCursor + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        } catch (Exception e) {
+            logger.error("Error streaming state tree", e);
+        }
+    }
+}
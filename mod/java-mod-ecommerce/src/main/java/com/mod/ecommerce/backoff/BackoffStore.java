@@ -0,0 +1,21 @@
+package com.mod.ecommerce.backoff;
+
+import java.sql.SQLException;
+
+/**
+ * Per-key backoff windows, e.g. one redeem per name per minute.
+ */
+public interface BackoffStore {
+    /**
+     * Starts a window of {@code windowMs} for the key unless one is already active. Check and start
+     * are atomic, so of several concurrent callers exactly one gets through.
+     *
+     * @return 0 if the window was started, otherwise the milliseconds left on the active window
+     */
+    long tryAcquire(String key, long windowMs) throws SQLException;
+
+    /**
+     * Ends the key's window early, e.g. when the action it guarded did not happen.
+     */
+    void release(String key) throws SQLException;
+}
@@ -0,0 +1,118 @@
+package com.mod.ecommerce.backoff;
+
+import com.mod.ecommerce.database.ConnectionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backoff store kept in the {@code redeem_backoff} table, so every instance sharing the database
+ * enforces the same windows. A window is taken by a conditional update of an expired row or an
+ * insert of a new one; the primary key makes concurrent inserts for a key collide, so only one
+ * caller wins. Expired rows are deleted periodically.
+ *
+ * Expiry uses each instance's wall clock, so instances should be kept in sync with NTP.
+ */
+public class DatabaseBackoffStore implements BackoffStore, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseBackoffStore.class);
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final String RENEW_EXPIRED = """
+        UPDATE redeem_backoff SET expires_at_ms = ?
+        WHERE name = ? AND expires_at_ms <= ?
+    """;
+    private static final String INSERT_WINDOW = """
+        INSERT INTO redeem_backoff (name, expires_at_ms) VALUES (?, ?)
+    """;
+    private static final String FIND_EXPIRY = """
+        SELECT expires_at_ms FROM redeem_backoff WHERE name = ?
+    """;
+    private static final String DELETE_WINDOW = """
+        DELETE FROM redeem_backoff WHERE name = ?
+    """;
+    private static final String DELETE_EXPIRED = """
+        DELETE FROM redeem_backoff WHERE expires_at_ms <= ?
+    """;
+
+    private final ConnectionPool pool;
+    private final ScheduledExecutorService cleaner;
+
+    public DatabaseBackoffStore(ConnectionPool pool, long cleanupIntervalMs) {
+        this.pool = pool;
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "backoff-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.cleaner.scheduleWithFixedDelay(this::deleteExpired, cleanupIntervalMs, cleanupIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long tryAcquire(String key, long windowMs) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                PreparedStatement renew = conn.prepare(RENEW_EXPIRED);
+                renew.setLong(1, now + windowMs);
+                renew.setString(2, key);
+                renew.setLong(3, now);
+                if (renew.executeUpdate() == 1) {
+                    return 0;
+                }
+
+                PreparedStatement insert = conn.prepare(INSERT_WINDOW);
+                insert.setString(1, key);
+                insert.setLong(2, now + windowMs);
+                try {
+                    insert.executeUpdate();
+                    return 0;
+                } catch (SQLException e) {
+                    if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                        throw e;
+                    }
+                }
+
+                // Someone else holds the window; report what is left of it
+                PreparedStatement find = conn.prepare(FIND_EXPIRY);
+                find.setString(1, key);
+                try (ResultSet rs = find.executeQuery()) {
+                    if (rs.next() && rs.getLong(1) > now) {
+                        return rs.getLong(1) - now;
+                    }
+                }
+                // The window expired or was released in between; try again
+            }
+        }
+    }
+
+    @Override
+    public void release(String key) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepare(DELETE_WINDOW);
+            stmt.setString(1, key);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void deleteExpired() {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepare(DELETE_EXPIRED);
+            stmt.setLong(1, System.currentTimeMillis());
+            int deleted = stmt.executeUpdate();
+            if (deleted > 0) {
+                logger.debug("Deleted {} expired backoff windows", deleted);
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to delete expired backoff windows", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        cleaner.shutdownNow();
+    }
+}
@@ -0,0 +1,141 @@
+package com.mod.ecommerce.backoff;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory backoff store that expires windows with a hashed timing wheel.
+ *
+ * Each started window is filed in the wheel slot for the tick it expires on. A daemon thread
+ * advances one slot per tick and removes the expired keys it finds there. Releasing or restarting
+ * a window takes its entry out of the wheel as well, so memory holds only keys with a live window. Past {@code maxEntries} live windows new keys are refused for a tick
+ * rather than letting the map grow without bound.
+ */
+public class TimingWheelBackoffStore implements BackoffStore, AutoCloseable {
+    private final long tickMs;
+    private final int maxEntries;
+    // The wheel entry of each live window, so it can be unfiled when the window ends early
+    private final Map<String, WheelEntry> expiries = new ConcurrentHashMap<>();
+    private final List<Queue<WheelEntry>> wheel;
+    private final ScheduledExecutorService ticker;
+    // Only touched by the ticker thread
+    private long lastTick;
+
+    private static class WheelEntry {
+        private final String key;
+        private final long expiresAt;
+
+        WheelEntry(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param tickMs     expiry resolution
+     * @param wheelSize  slots in the wheel; windows longer than a revolution just stay filed longer
+     * @param maxEntries most live windows held at once
+     */
+    public TimingWheelBackoffStore(long tickMs, int wheelSize, int maxEntries) {
+        this.tickMs = tickMs;
+        this.maxEntries = maxEntries;
+        this.wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        this.lastTick = System.currentTimeMillis() / tickMs;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "backoff-timing-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long tryAcquire(String key, long windowMs) {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + windowMs;
+        while (true) {
+            WheelEntry existing = expiries.get(key);
+            if (existing != null && existing.expiresAt > now) {
+                return existing.expiresAt - now;
+            }
+            WheelEntry entry = new WheelEntry(key, expiresAt);
+            if (existing == null) {
+                if (expiries.size() >= maxEntries) {
+                    return tickMs;
+                }
+                if (expiries.putIfAbsent(key, entry) == null) {
+                    schedule(entry);
+                    return 0;
+                }
+            } else if (expiries.replace(key, existing, entry)) {
+                unschedule(existing);
+                schedule(entry);
+                return 0;
+            }
+        }
+    }
+
+    @Override
+    public void release(String key) {
+        WheelEntry entry = expiries.remove(key);
+        if (entry != null) {
+            unschedule(entry);
+        }
+    }
+
+    private void schedule(WheelEntry entry) {
+        wheel.get(slotOf(entry)).add(entry);
+    }
+
+    // An entry released before it was filed stays behind until its slot is swept, which then ignores it
+    private void unschedule(WheelEntry entry) {
+        wheel.get(slotOf(entry)).remove(entry);
+    }
+
+    private int slotOf(WheelEntry entry) {
+        // Filed under the first tick boundary at or after expiry, so the entry is due when its slot is swept
+        return slot((entry.expiresAt + tickMs - 1) / tickMs);
+    }
+
+    private void advance() {
+        long now = System.currentTimeMillis();
+        long currentTick = now / tickMs;
+        // Catch up on every slot passed since the last run, at most one full revolution
+        long from = Math.max(lastTick + 1, currentTick - wheel.size() + 1);
+        for (long tick = from; tick <= currentTick; tick++) {
+            Iterator<WheelEntry> entries = wheel.get(slot(tick)).iterator();
+            while (entries.hasNext()) {
+                WheelEntry entry = entries.next();
+                if (entry.expiresAt <= now) {
+                    expiries.remove(entry.key, entry);
+                    entries.remove();
+                }
+            }
+        }
+        lastTick = currentTick;
+    }
+
+    private int slot(long tick) {
+        return Math.floorMod(tick, wheel.size());
+    }
+
+    public int size() {
+        return expiries.size();
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
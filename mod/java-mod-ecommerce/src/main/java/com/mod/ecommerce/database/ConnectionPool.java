@@ -0,0 +1,226 @@
+package com.mod.ecommerce.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded JDBC connection pool. Each pooled connection keeps its own prepared statements, so a
+ * given SQL string is prepared once per connection rather than once per call.
+ *
+ * A fair semaphore caps the number of borrowed connections; callers wait up to the acquire
+ * timeout and then get an {@link SQLTimeoutException}. Idle connections are reused most recently
+ * returned first and re-validated when they have been idle longer than the validation interval.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long acquireTimeoutNanos;
+    private final long validationIntervalNanos;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger openCount = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder discardedCount = new LongAdder();
+
+    /**
+     * A borrowed connection. Closing it returns it to the pool; its statements stay prepared.
+     */
+    public class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        // Only touched by the thread currently holding the connection
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private final Map<String, PreparedStatement> keyedStatements = new HashMap<>();
+        private long returnedAt;
+        private boolean broken;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+            return stmt;
+        }
+
+        /**
+         * Like {@link #prepare} but the statement returns generated keys.
+         */
+        public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+            PreparedStatement stmt = keyedStatements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                keyedStatements.put(sql, stmt);
+            }
+            return stmt;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Drops the connection instead of reusing it, e.g. after an error that may have broken it.
+         */
+        public void invalidate() {
+            broken = true;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+
+        private void closeQuietly() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.debug("Error closing pooled connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param maxSize            most connections open at once
+     * @param acquireTimeout     longest a caller waits for a free connection
+     * @param validationInterval idle time after which a connection is checked before reuse
+     */
+    public ConnectionPool(
+        String url,
+        String user,
+        String password,
+        int maxSize,
+        Duration acquireTimeout,
+        Duration validationInterval
+    ) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.validationIntervalNanos = validationInterval.toNanos();
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                timeoutCount.increment();
+                throw new SQLTimeoutException("Timed out after "
+                    + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos) + "ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        acquiredCount.increment();
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (System.nanoTime() - pooled.returnedAt < validationIntervalNanos
+                        || pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return pooled;
+                }
+                discard(pooled);
+            }
+            pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+            openCount.incrementAndGet();
+            createdCount.increment();
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        try {
+            if (pooled.broken || closed || pooled.connection.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            if (!pooled.connection.getAutoCommit()) {
+                // A borrower left a transaction open; never hand its work to the next one
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            pooled.returnedAt = System.nanoTime();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            logger.warn("Discarding pooled connection after error on release", e);
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        pooled.closeQuietly();
+        openCount.decrementAndGet();
+        discardedCount.increment();
+    }
+
+    // Saturation metrics
+    public int getMaxSize() { return maxSize; }
+    public int getOpenCount() { return openCount.get(); }
+    public int getIdleCount() { return idle.size(); }
+    public int getActiveCount() { return maxSize - permits.availablePermits(); }
+    public int getWaitingCount() { return permits.getQueueLength(); }
+    public long getAcquiredCount() { return acquiredCount.sum(); }
+    public long getTimeoutCount() { return timeoutCount.sum(); }
+    public long getTotalWaitMillis() { return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()); }
+    public long getMaxWaitMillis() { return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()); }
+    public long getCreatedCount() { return createdCount.sum(); }
+    public long getDiscardedCount() { return discardedCount.sum(); }
+
+    /**
+     * Closes idle connections; borrowed ones are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+}
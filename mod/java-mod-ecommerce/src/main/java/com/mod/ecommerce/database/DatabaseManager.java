@@ -3,20 +3,120 @@ package com.mod.ecommerce.database;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.sql.*;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
-public class DatabaseManager {
+public class DatabaseManager implements DonationClaimer {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
-    private Connection connection;
+    private static final String INSERT_DONATION = """
+        INSERT INTO donations (
+            tipper_name, recipient_account, amount, currency, timestamp_ms,
+            webhook_tracking_params, tenant_id, idempotency_key
+        ) VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+    """;
+    private static final String FIND_BY_IDEMPOTENCY_KEY = """
+        SELECT id FROM donations WHERE idempotency_key = ?
+    """;
+    private static final String ALL_IDEMPOTENCY_KEYS = """
+        SELECT idempotency_key FROM donations WHERE idempotency_key IS NOT NULL
+    """;
+    private static final String DUPLICATE_KEY_STATE = "23505";
+    // SQLState classes for bad data and constraint violations: retrying the same row cannot succeed
+    private static final String DATA_EXCEPTION_CLASS = "22";
+    private static final String INTEGRITY_VIOLATION_CLASS = "23";
+    private static final String SAVE_LOG_OFFSET = """
+        MERGE INTO ingest_log_offset (log_name, applied_offset) KEY (log_name) VALUES (?, ?)
+    """;
+    private static final String FIND_LOG_OFFSET = """
+        SELECT applied_offset FROM ingest_log_offset WHERE log_name = ?
+    """;
+    private static final String FIND_UNREDEEMED = """
+        SELECT * FROM donations
+        WHERE tipper_name = ? AND redeemed_at IS NULL
+        ORDER BY timestamp_ms ASC
+        LIMIT 1
+    """;
+    private static final String MARK_REDEEMED = """
+        UPDATE donations
+        SET redeemed_at = CURRENT_TIMESTAMP, redeemed_by_name = ?
+        WHERE id = ?
+    """;
+    private static final String FIND_ALL_UNREDEEMED = """
+        SELECT id, recipient_account, amount, currency, timestamp_ms, tenant_id FROM donations
+        WHERE tipper_name = ? AND redeemed_at IS NULL
+        ORDER BY timestamp_ms ASC, id ASC
+    """;
+    // Applies while the row is unredeemed, or already carries this same redemption, so replaying
+    // one matches its row again; no match means the row was redeemed by someone else
+    private static final String APPLY_REDEMPTION = """
+        UPDATE donations
+        SET redeemed_at = ?, redeemed_by_name = ?
+        WHERE id = ? AND (redeemed_at IS NULL OR (redeemed_at = ? AND redeemed_by_name = ?))
+    """;
+    private static final String OLDEST_UNREDEEMED_ID = """
+        SELECT id FROM donations
+        WHERE tipper_name = ? AND redeemed_at IS NULL
+        ORDER BY timestamp_ms ASC, id ASC
+        LIMIT 1
+    """;
+    // Conditional update returning the claimed row, so claim is one statement and one round trip
+    private static final String CLAIM_OLDEST_UNREDEEMED = """
+        SELECT * FROM FINAL TABLE (
+            UPDATE donations
+            SET redeemed_at = CURRENT_TIMESTAMP, redeemed_by_name = ?
+            WHERE id = (%s) AND redeemed_at IS NULL
+        )
+    """.formatted(OLDEST_UNREDEEMED_ID);
+    private static final String HAS_UNREDEEMED = """
+        SELECT 1 FROM donations
+        WHERE tipper_name = ? AND redeemed_at IS NULL
+        LIMIT 1
+    """;
+    private static final int MAX_CLAIM_ATTEMPTS = 5;
+    static final List<QueryPlanVerifier.HotQuery> HOT_QUERIES = List.of(
+        new QueryPlanVerifier.HotQuery("findUnredeemedDonation", FIND_UNREDEEMED, "idx_tipper_unredeemed", 1),
+        new QueryPlanVerifier.HotQuery("claimOldestUnredeemed", OLDEST_UNREDEEMED_ID, "idx_tipper_unredeemed", 1),
+        new QueryPlanVerifier.HotQuery("hasUnredeemed", HAS_UNREDEEMED, "idx_tipper_unredeemed", 1),
+        new QueryPlanVerifier.HotQuery("findByIdempotencyKey", FIND_BY_IDEMPOTENCY_KEY, "idx_idempotency_key", 1),
+        // Any keyset page is ordered by idx_time_id; only the row-value predicate also seeks on it
+        new QueryPlanVerifier.HotQuery("exportPage", DonationExporter.UNFILTERED_PAGE, "idx_time_id: timestamp_ms >=", 3)
+    );
+    private ConnectionPool pool;
+    
+    /**
+     * A donation that a batch insert rejected on its own, without failing the rest of the batch.
+     */
+    public static class RowFailure {
+        private final Donation donation;
+        private final SQLException cause;
+        
+        public RowFailure(Donation donation, SQLException cause) {
+            this.donation = donation;
+            this.cause = cause;
+        }
+        
+        public Donation getDonation() { return donation; }
+        public SQLException getCause() { return cause; }
+    }
+    
+    private final List<Consumer<List<Donation>>> insertListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Donation>> redeemListeners = new CopyOnWriteArrayList<>();
     
     public void initialize() {
         String dbUrl = System.getenv().getOrDefault("DB_URL", "jdbc:h2:file:./data/donations");
+        int poolSize = Integer.parseInt(System.getenv().getOrDefault("DB_POOL_SIZE", "10"));
+        long acquireTimeoutMs = Long.parseLong(System.getenv().getOrDefault("DB_POOL_ACQUIRE_TIMEOUT_MS", "5000"));
+        long validationIntervalMs = Long.parseLong(
+            System.getenv().getOrDefault("DB_POOL_VALIDATION_INTERVAL_MS", "30000"));
         try {
-            connection = DriverManager.getConnection(dbUrl, "sa", "");
-            createTables();
+            pool = new ConnectionPool(dbUrl, "sa", "", poolSize,
+                Duration.ofMillis(acquireTimeoutMs), Duration.ofMillis(validationIntervalMs));
+            new SchemaMigrator(pool).migrate();
             logger.info("Database initialized: {}", dbUrl);
         } catch (SQLException e) {
             logger.error("Failed to initialize database", e);
@@ -24,75 +124,319 @@ public class DatabaseManager {
         }
     }
     
-    private void createTables() throws SQLException {
-        String createTable = """
-            CREATE TABLE IF NOT EXISTS donations (
-                id BIGINT AUTO_INCREMENT PRIMARY KEY,
-                tipper_name VARCHAR(255) NOT NULL,
-                recipient_account VARCHAR(255) NOT NULL,
-                amount DECIMAL(18, 2) NOT NULL,
-                currency VARCHAR(10) NOT NULL,
-                timestamp_ms BIGINT NOT NULL,
-                webhook_tracking_params TEXT,
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                redeemed_at TIMESTAMP NULL,
-                redeemed_by_name VARCHAR(255) NULL,
-                associated_tome_or_session VARCHAR(255) NULL,
-                tenant_id VARCHAR(255) NULL,
-                INDEX idx_recipient_tipper (recipient_account, tipper_name),
-                INDEX idx_redeemed (redeemed_at)
-            )
-        """;
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(createTable);
-            logger.info("Donations table created or already exists");
-        }
+    /**
+     * Registers a callback that receives inserted donations, with their ids, after they commit.
+     */
+    public void addInsertListener(Consumer<List<Donation>> listener) {
+        insertListeners.add(listener);
     }
     
+    /**
+     * Inserts one donation. A donation whose idempotency key is already stored is skipped and
+     * left without an id.
+     */
     public void insertDonation(Donation donation) throws SQLException {
-        String sql = """
-            INSERT INTO donations (
-                tipper_name, recipient_account, amount, currency, timestamp_ms,
-                webhook_tracking_params, tenant_id
-            ) VALUES (?, ?, ?, ?, ?, ?, ?)
-        """;
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, donation.getTipperName());
-            stmt.setString(2, donation.getRecipientAccount());
-            stmt.setBigDecimal(3, donation.getAmount());
-            stmt.setString(4, donation.getCurrency());
-            stmt.setLong(5, donation.getTimestampMs());
-            stmt.setString(6, donation.getWebhookTrackingParams());
-            stmt.setString(7, donation.getTenantId());
-            stmt.executeUpdate();
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepareReturningKeys(INSERT_DONATION);
+            if (!insertOne(stmt, donation)) {
+                logger.info("Duplicate donation delivery {} skipped", donation.getIdempotencyKey());
+                return;
+            }
             logger.info("Donation inserted: {} from {}", donation.getAmount(), donation.getTipperName());
         }
+        notifyInserted(List.of(donation));
+    }
+    
+    /**
+     * Inserts every donation with one JDBC batch in a single transaction.
+     *
+     * If the batch fails, it is rolled back and the rows are inserted one at a time instead, still
+     * in one transaction. Duplicates of a stored idempotency key are skipped and left without an
+     * id; a row rejected for its data (SQLState class 22 or 23) is left without an id and returned
+     * as a {@link RowFailure}, and the other rows are still committed. Any other error fails the
+     * whole batch. Listeners only see the rows actually inserted.
+     */
+    public List<RowFailure> insertDonations(List<Donation> donations) throws SQLException {
+        return insertDonations(donations, null, 0);
+    }
+    
+    /**
+     * Like {@link #insertDonations(List)}, and records {@code appliedOffset} as the position of
+     * {@code logName} in the same transaction, so a log replayed from the recorded position never
+     * applies a row twice. A null log name records nothing.
+     */
+    public List<RowFailure> insertDonations(List<Donation> donations, String logName, long appliedOffset)
+            throws SQLException {
+        List<Donation> inserted = donations;
+        List<RowFailure> failures = List.of();
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            Connection connection = conn.getConnection();
+            PreparedStatement stmt = conn.prepareReturningKeys(INSERT_DONATION);
+            connection.setAutoCommit(false);
+            try {
+                try {
+                    for (Donation donation : donations) {
+                        bindInsert(stmt, donation);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    readGeneratedIds(stmt, donations);
+                } catch (SQLException e) {
+                    stmt.clearBatch();
+                    connection.rollback();
+                    // Rare: a retry that got past the webhook dedup, two copies in one batch, or a
+                    // row the schema rejects. A failed insert only undoes its own statement, so
+                    // this stays one transaction.
+                    inserted = new ArrayList<>(donations.size());
+                    failures = new ArrayList<>();
+                    for (Donation donation : donations) {
+                        donation.setId(null);
+                        try {
+                            if (insertOne(stmt, donation)) {
+                                inserted.add(donation);
+                            }
+                        } catch (SQLException rowError) {
+                            if (!isPermanentFailure(rowError)) {
+                                throw rowError;
+                            }
+                            failures.add(new RowFailure(donation, rowError));
+                        }
+                    }
+                    logger.info("Batch of {} donations fell back to row inserts: {} skipped as duplicates, {} rejected",
+                        donations.size(), donations.size() - inserted.size() - failures.size(), failures.size());
+                }
+                if (logName != null) {
+                    PreparedStatement offset = conn.prepare(SAVE_LOG_OFFSET);
+                    offset.setString(1, logName);
+                    offset.setLong(2, appliedOffset);
+                    offset.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            logger.debug("Inserted batch of {} donations", inserted.size());
+        }
+        if (!inserted.isEmpty()) {
+            notifyInserted(inserted);
+        }
+        return failures;
+    }
+    
+    /**
+     * The position recorded for the log by {@link #insertDonations(List, String, long)}, or 0.
+     */
+    public long getAppliedLogOffset(String logName) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepare(FIND_LOG_OFFSET);
+            stmt.setString(1, logName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+    
+    // Returns false, leaving the id unset, when the idempotency key is already stored
+    private static boolean insertOne(PreparedStatement stmt, Donation donation) throws SQLException {
+        bindInsert(stmt, donation);
+        try {
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) {
+                return false;
+            }
+            throw e;
+        }
+        readGeneratedIds(stmt, List.of(donation));
+        return true;
+    }
+    
+    private static void bindInsert(PreparedStatement stmt, Donation donation) throws SQLException {
+        stmt.setString(1, donation.getTipperName());
+        stmt.setString(2, donation.getRecipientAccount());
+        stmt.setBigDecimal(3, donation.getAmount());
+        stmt.setString(4, donation.getCurrency());
+        stmt.setLong(5, donation.getTimestampMs());
+        stmt.setString(6, donation.getWebhookTrackingParams());
+        stmt.setString(7, donation.getTenantId());
+        stmt.setString(8, donation.getIdempotencyKey());
+    }
+    
+    /**
+     * Whether the error is about the row's data, so retrying the same row cannot succeed.
+     */
+    static boolean isPermanentFailure(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            String state = next.getSQLState();
+            if (state != null && (state.startsWith(DATA_EXCEPTION_CLASS) || state.startsWith(INTEGRITY_VIOLATION_CLASS))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isDuplicateKey(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (DUPLICATE_KEY_STATE.equals(next.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The id of the donation stored under the idempotency key, if any.
+     */
+    public Optional<Long> findIdByIdempotencyKey(String idempotencyKey) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepare(FIND_BY_IDEMPOTENCY_KEY);
+            stmt.setString(1, idempotencyKey);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(rs.getLong(1));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+    
+    /**
+     * Streams every stored idempotency key to the consumer without collecting them.
+     */
+    public void forEachIdempotencyKey(Consumer<String> consumer) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepare(ALL_IDEMPOTENCY_KEYS);
+            stmt.setFetchSize(1000);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs.getString(1));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Registers a callback that receives each donation as it is claimed for redemption.
+     */
+    public void addRedeemListener(Consumer<Donation> listener) {
+        redeemListeners.add(listener);
+    }
+    
+    // Also called by UnredeemedCache, whose claims never pass through claimOldestUnredeemed here
+    void notifyRedeemed(Donation donation) {
+        for (Consumer<Donation> listener : redeemListeners) {
+            try {
+                listener.accept(donation);
+            } catch (RuntimeException e) {
+                logger.warn("Donation redeem listener failed", e);
+            }
+        }
+    }
+    
+    private static void readGeneratedIds(PreparedStatement stmt, List<Donation> donations) throws SQLException {
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            for (Donation donation : donations) {
+                if (!keys.next()) {
+                    break;
+                }
+                donation.setId(keys.getLong(1));
+            }
+        }
+    }
+    
+    private void notifyInserted(List<Donation> donations) {
+        for (Consumer<List<Donation>> listener : insertListeners) {
+            try {
+                listener.accept(donations);
+            } catch (RuntimeException e) {
+                logger.warn("Donation insert listener failed", e);
+            }
+        }
+    }
+    
+    /**
+     * All of the tipper's unredeemed donations, oldest first, without tracking params or
+     * redemption columns.
+     */
+    public List<Donation> findAllUnredeemed(String tipperName) throws SQLException {
+        List<Donation> donations = new ArrayList<>();
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepare(FIND_ALL_UNREDEEMED);
+            stmt.setString(1, tipperName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Donation d = new Donation();
+                    d.setId(rs.getLong("id"));
+                    d.setTipperName(tipperName);
+                    d.setAmount(rs.getBigDecimal("amount"));
+                    d.setCurrency(rs.getString("currency"));
+                    d.setTimestampMs(rs.getLong("timestamp_ms"));
+                    d.setRecipientAccount(rs.getString("recipient_account"));
+                    d.setTenantId(rs.getString("tenant_id"));
+                    donations.add(d);
+                }
+            }
+        }
+        return donations;
+    }
+    
+    /**
+     * Writes redemptions decided elsewhere, e.g. by the in-memory cache, in one transaction.
+     * Rows already redeemed are left untouched; those, unless redeemed by this same redemption,
+     * are returned as lost claims.
+     */
+    public List<Donation> applyRedemptions(List<Donation> redeemed) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            Connection connection = conn.getConnection();
+            PreparedStatement stmt = conn.prepare(APPLY_REDEMPTION);
+            connection.setAutoCommit(false);
+            try {
+                for (Donation donation : redeemed) {
+                    stmt.setTimestamp(1, donation.getRedeemedAt());
+                    stmt.setString(2, donation.getRedeemedByName());
+                    stmt.setLong(3, donation.getId());
+                    stmt.setTimestamp(4, donation.getRedeemedAt());
+                    stmt.setString(5, donation.getRedeemedByName());
+                    stmt.addBatch();
+                }
+                int[] counts = stmt.executeBatch();
+                connection.commit();
+                List<Donation> lost = new ArrayList<>();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        lost.add(redeemed.get(i));
+                    }
+                }
+                return lost;
+            } catch (SQLException e) {
+                stmt.clearBatch();
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
     }
     
     public Optional<Donation> findUnredeemedDonation(String tipperName) throws SQLException {
-        String sql = """
-            SELECT * FROM donations
-            WHERE tipper_name = ? AND redeemed_at IS NULL
-            ORDER BY timestamp_ms ASC
-            LIMIT 1
-        """;
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepare(FIND_UNREDEEMED);
             stmt.setString(1, tipperName);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return Optional.of(mapToDonation(rs));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(mapToDonation(rs));
+                }
             }
         }
         return Optional.empty();
     }
     
     public void markAsRedeemed(long donationId, String redeemedByName) throws SQLException {
-        String sql = """
-            UPDATE donations
-            SET redeemed_at = CURRENT_TIMESTAMP, redeemed_by_name = ?
-            WHERE id = ?
-        """;
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement stmt = conn.prepare(MARK_REDEEMED);
             stmt.setString(1, redeemedByName);
             stmt.setLong(2, donationId);
             int updated = stmt.executeUpdate();
@@ -102,6 +446,40 @@ public class DatabaseManager {
         }
     }
     
+    /**
+     * Atomically marks the tipper's oldest unredeemed donation as redeemed and returns it.
+     * The update only applies while the row is still unredeemed, so concurrent claims can never
+     * both win the same donation; a claim that loses the race retries against the next row.
+     */
+    @Override
+    public Optional<Donation> claimOldestUnredeemed(String tipperName, String redeemedBy) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            PreparedStatement claim = conn.prepare(CLAIM_OLDEST_UNREDEEMED);
+            for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+                claim.setString(1, redeemedBy);
+                claim.setString(2, tipperName);
+                try (ResultSet rs = claim.executeQuery()) {
+                    if (rs.next()) {
+                        Donation donation = mapToDonation(rs);
+                        logger.info("Donation {} claimed by {}", donation.getId(), redeemedBy);
+                        notifyRedeemed(donation);
+                        return Optional.of(donation);
+                    }
+                }
+                // Nothing claimed: either there is no unredeemed donation or another claim won the row
+                PreparedStatement exists = conn.prepare(HAS_UNREDEEMED);
+                exists.setString(1, tipperName);
+                try (ResultSet rs = exists.executeQuery()) {
+                    if (!rs.next()) {
+                        return Optional.empty();
+                    }
+                }
+            }
+        }
+        logger.warn("Gave up claiming a donation for {} after {} contended attempts", tipperName, MAX_CLAIM_ATTEMPTS);
+        return Optional.empty();
+    }
+    
     private Donation mapToDonation(ResultSet rs) throws SQLException {
         Donation d = new Donation();
         d.setId(rs.getLong("id"));
@@ -115,10 +493,11 @@ public class DatabaseManager {
         d.setRedeemedAt(rs.getTimestamp("redeemed_at"));
         d.setRedeemedByName(rs.getString("redeemed_by_name"));
         d.setTenantId(rs.getString("tenant_id"));
+        d.setIdempotencyKey(rs.getString("idempotency_key"));
         return d;
     }
     
-    public Connection getConnection() {
-        return connection;
+    public ConnectionPool getPool() {
+        return pool;
     }
 }
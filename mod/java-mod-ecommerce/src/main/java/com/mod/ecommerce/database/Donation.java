@@ -16,6 +16,7 @@ public class Donation {
     private String redeemedByName;
     private String associatedTomeOrSession;
     private String tenantId;
+    private String idempotencyKey;
     
     // Getters and setters
     public Long getId() { return id; }
@@ -53,4 +54,7 @@ public class Donation {
     
     public String getTenantId() { return tenantId; }
     public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+    
+    public String getIdempotencyKey() { return idempotencyKey; }
+    public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
 }
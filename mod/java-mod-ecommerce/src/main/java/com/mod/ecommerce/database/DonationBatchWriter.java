@@ -0,0 +1,170 @@
+package com.mod.ecommerce.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group-commits donation inserts. Submitted donations are collected into a batch until it holds
+ * {@code batchSize} rows or {@code maxDelay} has passed since its first row, then written with
+ * {@link DatabaseManager#insertDonations} in one transaction. Each submitter's future completes
+ * only once its batch has committed, or fails with the batch. A donation skipped as a duplicate
+ * delivery completes with false and is left without an id; one the database rejects for its own
+ * data fails alone while the rest of its batch commits.
+ */
+public class DonationBatchWriter implements DonationIngester, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DonationBatchWriter.class);
+    private static final long IDLE_POLL_MS = 100;
+
+    private final DatabaseManager dbManager;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingInsert> queue;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder insertedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private static class PendingInsert {
+        private final Donation donation;
+        private final CompletableFuture<Boolean> committed = new CompletableFuture<>();
+
+        PendingInsert(Donation donation) {
+            this.donation = donation;
+        }
+    }
+
+    /**
+     * @param batchSize     most rows per transaction
+     * @param maxDelay      longest the first row of a batch waits for more to arrive
+     * @param queueCapacity submissions held before new ones are rejected
+     */
+    public DonationBatchWriter(DatabaseManager dbManager, int batchSize, Duration maxDelay, int queueCapacity) {
+        this.dbManager = dbManager;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+
+        this.worker = new Thread(this::run, "donation-batch-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues a donation for the next batch. The future fails with
+     * {@link RejectedExecutionException} if the queue is full or the writer is closed.
+     */
+    @Override
+    public CompletableFuture<Boolean> submit(Donation donation) {
+        PendingInsert pending = new PendingInsert(donation);
+        if (!running || !queue.offer(pending)) {
+            rejectedCount.increment();
+            pending.committed.completeExceptionally(
+                new RejectedExecutionException("Donation insert queue is full"));
+        }
+        return pending.committed;
+    }
+
+    private void run() {
+        List<PendingInsert> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingInsert first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingInsert next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<PendingInsert> batch) {
+        List<Donation> donations = new ArrayList<>(batch.size());
+        for (PendingInsert pending : batch) {
+            donations.add(pending.donation);
+        }
+        try {
+            List<DatabaseManager.RowFailure> failures = dbManager.insertDonations(donations);
+            batchCount.increment();
+            Map<Donation, SQLException> rejected = new IdentityHashMap<>();
+            for (DatabaseManager.RowFailure failure : failures) {
+                rejected.put(failure.getDonation(), failure.getCause());
+            }
+            for (PendingInsert pending : batch) {
+                SQLException rowError = rejected.get(pending.donation);
+                if (rowError != null) {
+                    logger.warn("Donation from {} rejected by the database", pending.donation.getTipperName(), rowError);
+                    failedCount.increment();
+                    pending.committed.completeExceptionally(rowError);
+                    continue;
+                }
+                boolean stored = pending.donation.getId() != null;
+                if (stored) {
+                    insertedCount.increment();
+                }
+                pending.committed.complete(stored);
+            }
+        } catch (SQLException | RuntimeException e) {
+            logger.error("Failed to insert batch of {} donations", batch.size(), e);
+            failedCount.add(batch.size());
+            for (PendingInsert pending : batch) {
+                pending.committed.completeExceptionally(e);
+            }
+        }
+    }
+
+    public long getBatchCount() { return batchCount.sum(); }
+    public long getInsertedCount() { return insertedCount.sum(); }
+    public long getFailedCount() { return failedCount.sum(); }
+    public long getRejectedCount() { return rejectedCount.sum(); }
+    public int getQueuedCount() { return queue.size(); }
+
+    /**
+     * Stops accepting donations and waits for the queued ones to be written.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything that slipped in after the worker's last drain is failed rather than left hanging
+        PendingInsert pending;
+        while ((pending = queue.poll()) != null) {
+            rejectedCount.increment();
+            pending.committed.completeExceptionally(new RejectedExecutionException("Donation batch writer is closed"));
+        }
+    }
+}
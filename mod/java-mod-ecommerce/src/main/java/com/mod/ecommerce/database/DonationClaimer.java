@@ -0,0 +1,11 @@
+package com.mod.ecommerce.database;
+
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * Hands out a tipper's oldest unredeemed donation, marking it redeemed so no one else gets it.
+ */
+public interface DonationClaimer {
+    Optional<Donation> claimOldestUnredeemed(String tipperName, String redeemedBy) throws SQLException;
+}
@@ -0,0 +1,13 @@
+package com.mod.ecommerce.database;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Accepts webhook donations for storage. The future completes once the donation is durable,
+ * with false if it was recognised as a duplicate delivery and not stored, and fails with
+ * {@link RejectedExecutionException} when the ingester is saturated or closed.
+ */
+public interface DonationIngester {
+    CompletableFuture<Boolean> submit(Donation donation);
+}
@@ -0,0 +1,614 @@
+package com.mod.ecommerce.database;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local write-ahead log in front of the donations table. A donation is acknowledged as soon as it
+ * is forced to the log, so webhook latency no longer depends on H2; an applier thread then writes
+ * the log to the database in large batches.
+ *
+ * Appends are group-synced: a single writer drains everything queued, writes it and forces the
+ * file once for the whole group. Positions in the log are byte offsets that only grow; segment
+ * files are named after the offset of their first record. Each batch is inserted in the same
+ * transaction that records the offset it ends at, so after a crash the applier resumes exactly
+ * where the last committed batch stopped. Fully applied segments are deleted.
+ *
+ * Each record is {@code [int length][int crc32][payload]}. A torn record at the end of the last
+ * segment was never acknowledged and is cut off on startup.
+ *
+ * Donations are only visible to redeems once applied, typically within milliseconds.
+ *
+ * A record the database can never take, one that does not decode or a row rejected for its data
+ * (SQLState class 22 or 23), is moved to {@value #DEAD_LETTER_FILE} in the log directory as a
+ * JSON line with the reason, so it does not hold up the records behind it. Other database errors
+ * are retried until they clear.
+ */
+public class DonationWriteAheadLog implements DonationIngester, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DonationWriteAheadLog.class);
+    private static final String LOG_NAME = "webhook-ingest";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    static final String DEAD_LETTER_FILE = "dead-letter.jsonl";
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final int FRAME_HEADER_BYTES = Integer.BYTES * 2;
+    private static final int MAX_SYNC_GROUP = 4096;
+    private static final long POLL_MS = 100;
+    private static final long APPLY_RETRY_MS = 1000;
+
+    private final DatabaseManager dbManager;
+    private final Path directory;
+    private final long segmentBytes;
+    private final int applyBatchSize;
+    private final BlockingQueue<PendingAppend> queue;
+    private final Thread syncer;
+    private final Thread applier;
+    private final Object durableSignal = new Object();
+    private volatile boolean running = true;
+
+    // Segment start offset to file; guarded by itself
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    // Only touched by the syncer after construction
+    private FileChannel active;
+    private long activeStart;
+    private long writeOffset;
+    // Everything below this offset is on disk
+    private volatile long durableOffset;
+    // Everything below this offset is in the database; only written by the applier
+    private volatile long appliedOffset;
+
+    private final LongAdder appendedCount = new LongAdder();
+    private final LongAdder syncCount = new LongAdder();
+    private final LongAdder appliedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder deadLetteredCount = new LongAdder();
+
+    private static class PendingAppend {
+        private final byte[] frame;
+        private final CompletableFuture<Boolean> durable = new CompletableFuture<>();
+
+        PendingAppend(byte[] frame) {
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Recovers the log and starts applying anything left unapplied by a previous run.
+     *
+     * @param directory      directory holding the segment files; created if missing
+     * @param segmentBytes   size after which a new segment is started
+     * @param applyBatchSize most donations per database transaction
+     * @param queueCapacity  appends waiting for the writer before new ones are rejected
+     */
+    public DonationWriteAheadLog(
+        DatabaseManager dbManager,
+        Path directory,
+        long segmentBytes,
+        int applyBatchSize,
+        int queueCapacity
+    ) throws IOException, SQLException {
+        this.dbManager = dbManager;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.applyBatchSize = applyBatchSize;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        Files.createDirectories(directory);
+        recover();
+
+        this.syncer = new Thread(this::runSyncer, "ingest-wal-sync");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+        this.applier = new Thread(this::runApplier, "ingest-wal-applier");
+        this.applier.setDaemon(true);
+        this.applier.start();
+    }
+
+    /**
+     * Queues a donation for the next group sync. The future completes with true once the
+     * donation is on disk; duplicate deliveries are only recognised later, when applied.
+     */
+    @Override
+    public CompletableFuture<Boolean> submit(Donation donation) {
+        PendingAppend pending;
+        try {
+            pending = new PendingAppend(encode(donation));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (!running || !queue.offer(pending)) {
+            rejectedCount.increment();
+            pending.durable.completeExceptionally(new RejectedExecutionException("Ingest log queue is full"));
+        }
+        return pending.durable;
+    }
+
+    private void runSyncer() {
+        List<PendingAppend> group = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingAppend first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group, MAX_SYNC_GROUP - 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!group.isEmpty()) {
+                sync(group);
+                group.clear();
+            }
+        }
+    }
+
+    private void sync(List<PendingAppend> group) {
+        try {
+            for (PendingAppend pending : group) {
+                if (writeOffset - activeStart >= segmentBytes) {
+                    roll();
+                }
+                ByteBuffer frame = ByteBuffer.wrap(pending.frame);
+                while (frame.hasRemaining()) {
+                    active.write(frame);
+                }
+                writeOffset += pending.frame.length;
+            }
+            active.force(false);
+        } catch (IOException e) {
+            logger.error("Failed to write {} donations to the ingest log", group.size(), e);
+            discardUnsynced();
+            for (PendingAppend pending : group) {
+                pending.durable.completeExceptionally(e);
+            }
+            return;
+        }
+        syncCount.increment();
+        appendedCount.add(group.size());
+        durableOffset = writeOffset;
+        synchronized (durableSignal) {
+            durableSignal.notifyAll();
+        }
+        for (PendingAppend pending : group) {
+            pending.durable.complete(true);
+        }
+    }
+
+    // After a failed write, cut the active segment back to the last synced record
+    private void discardUnsynced() {
+        writeOffset = durableOffset;
+        try {
+            if (durableOffset >= activeStart) {
+                active.truncate(durableOffset - activeStart);
+                active.position(durableOffset - activeStart);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to truncate ingest log segment after a write error", e);
+        }
+    }
+
+    private void roll() throws IOException {
+        active.force(false);
+        // Records of the current group forced here are durable even if the group later fails;
+        // their webhooks see an error and the retries are recognised by idempotency key
+        durableOffset = writeOffset;
+        active.close();
+        openSegment(writeOffset);
+    }
+
+    private void openSegment(long start) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", start, SEGMENT_SUFFIX));
+        active = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        active.position(active.size());
+        activeStart = start;
+        synchronized (segments) {
+            segments.put(start, path);
+        }
+    }
+
+    private void runApplier() {
+        while (running || appliedOffset < durableOffset) {
+            long limit = durableOffset;
+            if (appliedOffset >= limit) {
+                synchronized (durableSignal) {
+                    if (appliedOffset >= durableOffset) {
+                        try {
+                            durableSignal.wait(POLL_MS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+                continue;
+            }
+            List<Donation> batch = new ArrayList<>(Math.min(applyBatchSize, 1024));
+            List<Map<String, Object>> undecodable = new ArrayList<>();
+            long end;
+            try {
+                end = read(appliedOffset, limit, batch, undecodable);
+            } catch (IOException e) {
+                logger.error("Failed to read the ingest log at offset {}, retrying", appliedOffset, e);
+                if (!pause()) {
+                    return;
+                }
+                continue;
+            }
+            // Dead-lettered before the offset moves past them, so none is lost in a crash
+            if (!undecodable.isEmpty() && !deadLetter(undecodable)) {
+                if (!pause()) {
+                    return;
+                }
+                continue;
+            }
+            if (!applyUntilDone(batch, end)) {
+                return;
+            }
+            deleteAppliedSegments();
+        }
+    }
+
+    private boolean applyUntilDone(List<Donation> batch, long end) {
+        while (true) {
+            try {
+                List<DatabaseManager.RowFailure> failures = dbManager.insertDonations(batch, LOG_NAME, end);
+                if (!failures.isEmpty()) {
+                    List<Map<String, Object>> entries = new ArrayList<>(failures.size());
+                    for (DatabaseManager.RowFailure failure : failures) {
+                        logger.warn("Logged donation from {} rejected by the database, dead-lettered",
+                            failure.getDonation().getTipperName(), failure.getCause());
+                        entries.add(deadLetterEntry(failure.getDonation(), failure.getCause()));
+                    }
+                    // Already committed past these rows; a failed write leaves them in the error log
+                    deadLetter(entries);
+                }
+                appliedOffset = end;
+                appliedCount.add(batch.size() - failures.size());
+                return true;
+            } catch (SQLException e) {
+                if (DatabaseManager.isPermanentFailure(e) && !batch.isEmpty()) {
+                    // Not pinned on a row by the row-at-a-time fallback; set the batch aside and
+                    // only record the offset, rather than retrying something that cannot succeed
+                    logger.error("Logged batch of {} donations rejected by the database, dead-lettering it",
+                        batch.size(), e);
+                    List<Map<String, Object>> entries = new ArrayList<>(batch.size());
+                    for (Donation donation : batch) {
+                        entries.add(deadLetterEntry(donation, e));
+                    }
+                    if (deadLetter(entries)) {
+                        batch = List.of();
+                        continue;
+                    }
+                } else {
+                    // The donations are safe in the log; keep retrying rather than dropping them
+                    logger.warn("Failed to apply {} logged donations, retrying", batch.size(), e);
+                }
+                if (!running || !pause()) {
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to apply {} logged donations, retrying", batch.size(), e);
+                if (!running || !pause()) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    // Appends the entries to the dead-letter file and forces it; false if they could not be written
+    private boolean deadLetter(List<Map<String, Object>> entries) {
+        Path path = directory.resolve(DEAD_LETTER_FILE);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteArrayOutputStream lines = new ByteArrayOutputStream(256 * entries.size());
+            for (Map<String, Object> entry : entries) {
+                JSON.writeValue(lines, entry);
+                lines.write('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            deadLetteredCount.add(entries.size());
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to write {} ingest log records to {}: {}", entries.size(), path, entries, e);
+            return false;
+        }
+    }
+
+    private static Map<String, Object> deadLetterEntry(Donation donation, SQLException cause) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("tipperName", donation.getTipperName());
+        entry.put("recipientAccount", donation.getRecipientAccount());
+        entry.put("amount", donation.getAmount().toPlainString());
+        entry.put("currency", donation.getCurrency());
+        entry.put("timestampMs", donation.getTimestampMs());
+        entry.put("webhookTrackingParams", donation.getWebhookTrackingParams());
+        entry.put("tenantId", donation.getTenantId());
+        entry.put("idempotencyKey", donation.getIdempotencyKey());
+        entry.put("sqlState", cause.getSQLState());
+        entry.put("error", cause.getMessage());
+        return entry;
+    }
+
+    private static Map<String, Object> undecodableEntry(long offset, ByteBuffer payload, Exception cause) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(payload.position(), bytes);
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("offset", offset);
+        entry.put("record", Base64.getEncoder().encodeToString(bytes));
+        entry.put("error", String.valueOf(cause.getMessage()));
+        return entry;
+    }
+
+    private static boolean pause() {
+        try {
+            Thread.sleep(APPLY_RETRY_MS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Decodes records from [from, limit) into the batch and returns the offset after the last one;
+    // records that do not decode go to undecodable instead
+    private long read(long from, long limit, List<Donation> batch, List<Map<String, Object>> undecodable)
+            throws IOException {
+        long offset = from;
+        while (offset < limit && batch.size() < applyBatchSize) {
+            Map.Entry<Long, Path> segment;
+            Long nextStart;
+            synchronized (segments) {
+                segment = segments.floorEntry(offset);
+                nextStart = segments.higherKey(offset);
+            }
+            if (segment == null) {
+                throw new IOException("No ingest log segment holds offset " + offset);
+            }
+            long segmentLimit = nextStart != null ? Math.min(nextStart, limit) : limit;
+            try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(segmentLimit - offset, 4L * 1024 * 1024));
+                channel.read(buffer, offset - segment.getKey());
+                buffer.flip();
+                while (batch.size() < applyBatchSize && buffer.remaining() >= FRAME_HEADER_BYTES) {
+                    int length = buffer.getInt(buffer.position());
+                    if (buffer.remaining() < FRAME_HEADER_BYTES + length) {
+                        break;
+                    }
+                    buffer.position(buffer.position() + FRAME_HEADER_BYTES);
+                    ByteBuffer payload = buffer.slice(buffer.position(), length);
+                    buffer.position(buffer.position() + length);
+                    try {
+                        batch.add(decode(payload.duplicate()));
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("Ingest log record at offset {} does not decode, dead-lettering it", offset, e);
+                        undecodable.add(undecodableEntry(offset, payload, e));
+                    }
+                    offset += FRAME_HEADER_BYTES + length;
+                }
+                if (buffer.position() == 0) {
+                    throw new IOException("Ingest log record at offset " + offset + " does not fit the read buffer");
+                }
+            }
+        }
+        return offset;
+    }
+
+    private void deleteAppliedSegments() {
+        List<Path> applied = new ArrayList<>();
+        synchronized (segments) {
+            // A segment is done once the next one starts at or below the applied offset
+            while (segments.size() > 1) {
+                Long second = segments.higherKey(segments.firstKey());
+                if (second > appliedOffset) {
+                    break;
+                }
+                applied.add(segments.pollFirstEntry().getValue());
+            }
+        }
+        for (Path path : applied) {
+            try {
+                Files.deleteIfExists(path);
+                logger.debug("Deleted applied ingest log segment {}", path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete applied ingest log segment {}", path, e);
+            }
+        }
+    }
+
+    private void recover() throws IOException, SQLException {
+        long applied = dbManager.getAppliedLogOffset(LOG_NAME);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            openSegment(applied);
+            writeOffset = applied;
+        } else {
+            for (Path path : files) {
+                segments.put(startOf(path), path);
+            }
+            Path last = files.get(files.size() - 1);
+            long lastStart = startOf(last);
+            long validEnd = validLength(last);
+            try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+                if (channel.size() > validEnd) {
+                    logger.warn("Cutting {} bytes of unacknowledged records off {}", channel.size() - validEnd, last);
+                    channel.truncate(validEnd);
+                }
+            }
+            writeOffset = lastStart + validEnd;
+            if (applied < segments.firstKey() || applied > writeOffset) {
+                logger.error("Applied ingest log offset {} is outside the log [{}, {}); resuming from the log start",
+                    applied, segments.firstKey(), writeOffset);
+                applied = segments.firstKey();
+            }
+            openSegment(lastStart);
+        }
+        durableOffset = writeOffset;
+        appliedOffset = applied;
+        deleteAppliedSegments();
+        if (applied < writeOffset) {
+            logger.info("Ingest log has {} bytes of donations to apply from offset {}", writeOffset - applied, applied);
+        }
+    }
+
+    // Length of the prefix of the segment made of complete records with matching checksums
+    private static long validLength(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = 0;
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+            while (position + FRAME_HEADER_BYTES <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length < 0 || position + FRAME_HEADER_BYTES + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                channel.read(payload, position + FRAME_HEADER_BYTES);
+                payload.flip();
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                position += FRAME_HEADER_BYTES + length;
+            }
+            return position;
+        }
+    }
+
+    private static long startOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static byte[] encode(Donation donation) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // length and checksum, filled in below
+            out.writeInt(0);
+            writeString(out, donation.getTipperName());
+            writeString(out, donation.getRecipientAccount());
+            writeString(out, donation.getAmount().toPlainString());
+            writeString(out, donation.getCurrency());
+            out.writeLong(donation.getTimestampMs());
+            writeString(out, donation.getWebhookTrackingParams());
+            writeString(out, donation.getTenantId());
+            writeString(out, donation.getIdempotencyKey());
+        }
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - FRAME_HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(frame, FRAME_HEADER_BYTES, length);
+        ByteBuffer.wrap(frame).putInt(length).putInt((int) crc.getValue());
+        return frame;
+    }
+
+    private static Donation decode(ByteBuffer payload) throws IOException {
+        try {
+            Donation donation = new Donation();
+            donation.setTipperName(readString(payload));
+            donation.setRecipientAccount(readString(payload));
+            donation.setAmount(new BigDecimal(readString(payload)));
+            donation.setCurrency(readString(payload));
+            donation.setTimestampMs(payload.getLong());
+            donation.setWebhookTrackingParams(readString(payload));
+            donation.setTenantId(readString(payload));
+            donation.setIdempotencyKey(readString(payload));
+            return donation;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Malformed ingest log record", e);
+        }
+    }
+
+    // Length-prefixed UTF-8; -1 marks null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long getAppendedCount() { return appendedCount.sum(); }
+    public long getSyncCount() { return syncCount.sum(); }
+    public long getAppliedCount() { return appliedCount.sum(); }
+    public long getDeadLetteredCount() { return deadLetteredCount.sum(); }
+    public long getRejectedCount() { return rejectedCount.sum(); }
+    public long getUnappliedBytes() { return durableOffset - appliedOffset; }
+
+    /**
+     * Stops accepting donations, syncs the queued ones and applies what it can before returning.
+     * Anything left unapplied is picked up from the log on the next start.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            syncer.join();
+            applier.join();
+            active.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("Failed to close ingest log segment", e);
+        }
+        PendingAppend pending;
+        while ((pending = queue.poll()) != null) {
+            rejectedCount.increment();
+            pending.durable.completeExceptionally(new RejectedExecutionException("Ingest log is closed"));
+        }
+    }
+}
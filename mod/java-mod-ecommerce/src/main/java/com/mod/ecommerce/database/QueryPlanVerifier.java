@@ -0,0 +1,79 @@
+package com.mod.ecommerce.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs {@code EXPLAIN} on the hot queries and reports any whose plan no longer uses the index it
+ * was tuned for, so a schema or query change that silently drops to a table scan is caught by the
+ * tests rather than as redeem latency growing with the table. Plans depend on table statistics,
+ * so it should run against a seeded and analyzed database.
+ */
+public class QueryPlanVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(QueryPlanVerifier.class);
+
+    public static class HotQuery {
+        private final String name;
+        private final String sql;
+        private final String expectedIndex;
+        private final int parameterCount;
+
+        public HotQuery(String name, String sql, String expectedIndex, int parameterCount) {
+            this.name = name;
+            this.sql = sql;
+            this.expectedIndex = expectedIndex;
+            this.parameterCount = parameterCount;
+        }
+
+        public String getName() { return name; }
+        public String getSql() { return sql; }
+        public String getExpectedIndex() { return expectedIndex; }
+        public int getParameterCount() { return parameterCount; }
+    }
+
+    private final ConnectionPool pool;
+
+    public QueryPlanVerifier(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns one message per query whose plan misses its index; empty when every plan is as intended.
+     */
+    public List<String> verify(List<HotQuery> queries) throws SQLException {
+        List<String> failures = new ArrayList<>();
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            for (HotQuery query : queries) {
+                String plan = explain(conn, query);
+                if (!plan.toUpperCase(Locale.ROOT).contains(query.getExpectedIndex().toUpperCase(Locale.ROOT))) {
+                    failures.add(query.getName() + " does not use " + query.getExpectedIndex() + ": " + plan);
+                } else {
+                    logger.debug("Plan for {} uses {}", query.getName(), query.getExpectedIndex());
+                }
+            }
+        }
+        return failures;
+    }
+
+    private static String explain(ConnectionPool.PooledConnection conn, HotQuery query) throws SQLException {
+        try (PreparedStatement stmt = conn.getConnection().prepareStatement("EXPLAIN " + query.getSql())) {
+            // Plans do not depend on the values here, only on the shape of the predicates
+            for (int i = 1; i <= query.getParameterCount(); i++) {
+                stmt.setString(i, "");
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+            return plan.toString().trim();
+        }
+    }
+}
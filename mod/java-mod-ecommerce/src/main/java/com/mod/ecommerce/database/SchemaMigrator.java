@@ -0,0 +1,183 @@
+package com.mod.ecommerce.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Applies the donations schema as numbered migrations, recording each applied version in
+ * {@code schema_version}. Migrations run in order and only once; new schema changes are added to
+ * the end of {@link #MIGRATIONS} and never edited after release.
+ *
+ * Statements should be idempotent ({@code IF NOT EXISTS}) so a database created before versioning
+ * existed, or one being migrated by two instances at once, converges on the same schema.
+ */
+public class SchemaMigrator {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    public static class Migration {
+        private final int version;
+        private final String description;
+        private final List<String> statements;
+
+        public Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = List.of(statements);
+        }
+
+        public int getVersion() { return version; }
+        public String getDescription() { return description; }
+        public List<String> getStatements() { return statements; }
+    }
+
+    static final List<Migration> MIGRATIONS = List.of(
+        // Indexes are separate statements rather than MySQL-only inline INDEX clauses, so this runs
+        // on any H2 mode; databases that already applied it have the same indexes
+        new Migration(1, "Create donations table", """
+            CREATE TABLE IF NOT EXISTS donations (
+                id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                tipper_name VARCHAR(255) NOT NULL,
+                recipient_account VARCHAR(255) NOT NULL,
+                amount DECIMAL(18, 2) NOT NULL,
+                currency VARCHAR(10) NOT NULL,
+                timestamp_ms BIGINT NOT NULL,
+                webhook_tracking_params TEXT,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                redeemed_at TIMESTAMP NULL,
+                redeemed_by_name VARCHAR(255) NULL,
+                associated_tome_or_session VARCHAR(255) NULL,
+                tenant_id VARCHAR(255) NULL
+            )
+        """, """
+            CREATE INDEX IF NOT EXISTS idx_recipient_tipper ON donations (recipient_account, tipper_name)
+        """, """
+            CREATE INDEX IF NOT EXISTS idx_redeemed ON donations (redeemed_at)
+        """),
+        // Serves the redeem lookup: equality on tipper, IS NULL on redeemed_at, ordered by time
+        new Migration(2, "Index unredeemed donations by tipper and time", """
+            CREATE INDEX IF NOT EXISTS idx_tipper_unredeemed
+            ON donations (tipper_name, redeemed_at, timestamp_ms)
+        """),
+        new Migration(3, "Create shared redeem backoff table", """
+            CREATE TABLE IF NOT EXISTS redeem_backoff (
+                name VARCHAR(255) PRIMARY KEY,
+                expires_at_ms BIGINT NOT NULL
+            )
+        """, """
+            CREATE INDEX IF NOT EXISTS idx_backoff_expires ON redeem_backoff (expires_at_ms)
+        """),
+        new Migration(4, "Create donation aggregate checkpoint tables", """
+            CREATE TABLE IF NOT EXISTS donation_aggregates (
+                dimension VARCHAR(32) NOT NULL,
+                dimension_value VARCHAR(255) NOT NULL,
+                currency VARCHAR(10) NOT NULL,
+                donation_count BIGINT NOT NULL,
+                amount_cents BIGINT NOT NULL,
+                redeemed_count BIGINT NOT NULL,
+                redeemed_cents BIGINT NOT NULL,
+                PRIMARY KEY (dimension, dimension_value, currency)
+            )
+        """, """
+            CREATE TABLE IF NOT EXISTS aggregate_checkpoint (
+                id INT PRIMARY KEY,
+                last_donation_id BIGINT NOT NULL,
+                checkpoint_at_ms BIGINT NOT NULL
+            )
+        """),
+        // Serves keyset pages of the export, which seek to (timestamp_ms, id) and read forward
+        new Migration(5, "Index donations by time and id", """
+            CREATE INDEX IF NOT EXISTS idx_time_id ON donations (timestamp_ms, id)
+        """),
+        // Rows from before idempotency keys existed keep a NULL key, which the unique index allows
+        new Migration(6, "Add unique webhook idempotency key", """
+            ALTER TABLE donations ADD COLUMN IF NOT EXISTS idempotency_key VARCHAR(64) NULL
+        """, """
+            CREATE UNIQUE INDEX IF NOT EXISTS idx_idempotency_key ON donations (idempotency_key)
+        """),
+        new Migration(7, "Create ingest log offset table", """
+            CREATE TABLE IF NOT EXISTS ingest_log_offset (
+                log_name VARCHAR(64) PRIMARY KEY,
+                applied_offset BIGINT NOT NULL
+            )
+        """),
+        // The planner picked idx_redeemed for "redeemed_at IS NULL" over idx_tipper_unredeemed,
+        // turning redeem lookups into a walk over every unredeemed row
+        new Migration(8, "Drop redeemed_at index", """
+            DROP INDEX IF EXISTS idx_redeemed
+        """)
+    );
+
+    private static final String CREATE_VERSION_TABLE = """
+        CREATE TABLE IF NOT EXISTS schema_version (
+            version INT PRIMARY KEY,
+            description VARCHAR(255) NOT NULL,
+            applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+        )
+    """;
+
+    private final ConnectionPool pool;
+
+    public SchemaMigrator(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Applies every migration newer than the recorded version. Returns the resulting version.
+     */
+    public int migrate() throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            Connection connection = conn.getConnection();
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(CREATE_VERSION_TABLE);
+            }
+            int current = currentVersion(connection);
+            for (Migration migration : MIGRATIONS) {
+                if (migration.getVersion() <= current) {
+                    continue;
+                }
+                apply(connection, migration);
+                current = migration.getVersion();
+            }
+            logger.info("Donations schema at version {}", current);
+            return current;
+        }
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            try (Statement stmt = connection.createStatement()) {
+                for (String sql : migration.getStatements()) {
+                    stmt.execute(sql);
+                }
+            }
+            try (PreparedStatement record = connection.prepareStatement(
+                    "MERGE INTO schema_version (version, description) KEY (version) VALUES (?, ?)")) {
+                record.setInt(1, migration.getVersion());
+                record.setString(2, migration.getDescription());
+                record.executeUpdate();
+            }
+            connection.commit();
+            logger.info("Applied schema migration {}: {}", migration.getVersion(), migration.getDescription());
+        } catch (SQLException e) {
+            connection.rollback();
+            throw new SQLException("Schema migration " + migration.getVersion() + " failed", e);
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.mod.ecommerce.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves redeems from memory. For each recently active tipper it keeps the unredeemed donations,
+ * oldest first, loaded from the database on first use and kept current from committed inserts.
+ *
+ * A claim takes the head of the tipper's queue and appends the redemption to a local log, forced
+ * to disk before the claim returns, so an acknowledged redemption survives a crash. A background
+ * applier then writes redemptions to the database in batches; the log is replayed on startup and
+ * truncated whenever everything in it has been applied. Under steady load it is never fully
+ * applied, so once it grows past a few times what is still pending it is rewritten with just the
+ * pending redemptions and swapped in atomically.
+ *
+ * The cache is the authority for redemptions on this node, so it must not be combined with other
+ * nodes claiming from the same database. A redemption the database refuses because the row was
+ * already redeemed is a lost claim: it is logged and counted in {@link #getLostClaimCount}.
+ */
+public class UnredeemedCache implements DonationClaimer, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(UnredeemedCache.class);
+    private static final int APPLY_BATCH_SIZE = 256;
+    private static final long APPLY_POLL_MS = 100;
+    private static final long APPLY_RETRY_MS = 1000;
+    // The log is compacted once it is this large and mostly applied
+    private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+    private static final int COMPACT_RATIO = 4;
+    private static final Comparator<CachedDonation> OLDEST_FIRST =
+        Comparator.comparingLong((CachedDonation d) -> d.timestampMs).thenComparingLong(d -> d.id);
+
+    private final DatabaseManager dbManager;
+    private final int maxTippers;
+    private final Path logPath;
+    private final Object logLock = new Object();
+    // Guarded by logLock
+    private FileChannel log;
+    private long pendingLogBytes;
+
+    // Access-ordered so the least recently used tipper is evicted first; guarded by itself
+    private final LinkedHashMap<String, TipperQueue> tippers = new LinkedHashMap<>(16, 0.75f, true);
+    // Evicted queues not yet marked as such, by tipper; guarded by tippers
+    private final Map<String, List<TipperQueue>> retiring = new HashMap<>();
+    // Claimed but not yet applied to the database, with their log records; excluded when a
+    // tipper is loaded
+    private final Map<Long, byte[]> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<Donation> toApply = new LinkedBlockingQueue<>();
+    private final Thread applier;
+    private volatile boolean running = true;
+
+    private final LongAdder claimCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder appliedCount = new LongAdder();
+    private final LongAdder lostClaimCount = new LongAdder();
+
+    private static class CachedDonation {
+        private final long id;
+        private final BigDecimal amount;
+        private final String currency;
+        private final long timestampMs;
+        private final String recipientAccount;
+        private final String tenantId;
+
+        CachedDonation(Donation donation) {
+            this.id = donation.getId();
+            this.amount = donation.getAmount();
+            this.currency = donation.getCurrency();
+            this.timestampMs = donation.getTimestampMs();
+            this.recipientAccount = donation.getRecipientAccount();
+            this.tenantId = donation.getTenantId();
+        }
+    }
+
+    private static class TipperQueue {
+        private final String tipperName;
+        private final NavigableSet<CachedDonation> entries = new TreeSet<>(OLDEST_FIRST);
+        private boolean loaded;
+        private boolean evicted;
+        // Highest id the load read; inserts at or below it were already seen, and may be claimed
+        private long loadedThroughId;
+
+        TipperQueue(String tipperName) {
+            this.tipperName = tipperName;
+        }
+    }
+
+    /**
+     * Replays any redemptions left in the log from a previous run before returning.
+     *
+     * @param maxTippers tippers kept in memory; the least recently used is dropped past this
+     * @param logPath    redemption log; created if missing
+     */
+    public UnredeemedCache(DatabaseManager dbManager, int maxTippers, Path logPath) throws IOException, SQLException {
+        this.dbManager = dbManager;
+        this.maxTippers = maxTippers;
+        this.logPath = logPath;
+        Path parent = logPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        recover();
+        this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        dbManager.addInsertListener(this::onInserted);
+
+        this.applier = new Thread(this::run, "redemption-applier");
+        this.applier.setDaemon(true);
+        this.applier.start();
+    }
+
+    @Override
+    public Optional<Donation> claimOldestUnredeemed(String tipperName, String redeemedBy) throws SQLException {
+        while (true) {
+            TipperQueue queue = queueFor(tipperName);
+            synchronized (queue) {
+                if (queue.evicted) {
+                    continue;
+                }
+                if (!queue.loaded) {
+                    load(tipperName, queue);
+                }
+                CachedDonation next = queue.entries.pollFirst();
+                if (next == null) {
+                    return Optional.empty();
+                }
+                Donation claimed = new Donation();
+                claimed.setId(next.id);
+                claimed.setTipperName(tipperName);
+                claimed.setAmount(next.amount);
+                claimed.setCurrency(next.currency);
+                claimed.setTimestampMs(next.timestampMs);
+                claimed.setRecipientAccount(next.recipientAccount);
+                claimed.setTenantId(next.tenantId);
+                claimed.setRedeemedAt(new Timestamp(System.currentTimeMillis()));
+                claimed.setRedeemedByName(redeemedBy);
+                try {
+                    append(claimed);
+                } catch (IOException e) {
+                    queue.entries.add(next);
+                    throw new SQLException("Failed to persist redemption of donation " + next.id, e);
+                }
+                toApply.add(claimed);
+                claimCount.increment();
+                dbManager.notifyRedeemed(claimed);
+                return Optional.of(claimed);
+            }
+        }
+    }
+
+    private TipperQueue queueFor(String tipperName) {
+        TipperQueue queue;
+        TipperQueue evicted = null;
+        synchronized (tippers) {
+            queue = tippers.get(tipperName);
+            if (queue == null) {
+                queue = new TipperQueue(tipperName);
+                tippers.put(tipperName, queue);
+                if (tippers.size() > maxTippers) {
+                    Iterator<TipperQueue> eldest = tippers.values().iterator();
+                    evicted = eldest.next();
+                    eldest.remove();
+                    retiring.computeIfAbsent(evicted.tipperName, name -> new ArrayList<>(1)).add(evicted);
+                }
+            }
+        }
+        // Marked outside the map lock: a claim may hold the evicted queue's lock across a load
+        if (evicted != null) {
+            markEvicted(evicted);
+            synchronized (tippers) {
+                List<TipperQueue> queues = retiring.get(evicted.tipperName);
+                if (queues != null && queues.remove(evicted) && queues.isEmpty()) {
+                    retiring.remove(evicted.tipperName);
+                }
+            }
+        }
+        return queue;
+    }
+
+    // Waits for any claim still running on the queue, so none is mid-way on a queue being dropped
+    private static void markEvicted(TipperQueue queue) {
+        synchronized (queue) {
+            queue.evicted = true;
+        }
+    }
+
+    // Caller holds the queue's lock
+    private void load(String tipperName, TipperQueue queue) throws SQLException {
+        // A claim on an evicted queue for this tipper must finish, and add its id to pending,
+        // before the database is read; otherwise the same donation could be claimed twice
+        List<TipperQueue> previous;
+        synchronized (tippers) {
+            previous = new ArrayList<>(retiring.getOrDefault(tipperName, List.of()));
+        }
+        for (TipperQueue evicted : previous) {
+            markEvicted(evicted);
+        }
+        for (Donation donation : dbManager.findAllUnredeemed(tipperName)) {
+            queue.loadedThroughId = Math.max(queue.loadedThroughId, donation.getId());
+            if (!pending.containsKey(donation.getId())) {
+                queue.entries.add(new CachedDonation(donation));
+            }
+        }
+        queue.loaded = true;
+        loadCount.increment();
+    }
+
+    private void onInserted(List<Donation> donations) {
+        for (Donation donation : donations) {
+            if (donation.getId() == null) {
+                continue;
+            }
+            TipperQueue queue;
+            synchronized (tippers) {
+                queue = tippers.get(donation.getTipperName());
+            }
+            if (queue == null) {
+                continue;
+            }
+            // An unloaded queue picks the row up when it loads. A loaded one already has it, or has
+            // handed it to a claim, if the load read it or it is still waiting to be applied
+            synchronized (queue) {
+                if (queue.loaded && !queue.evicted && donation.getId() > queue.loadedThroughId
+                        && !pending.containsKey(donation.getId())) {
+                    queue.entries.add(new CachedDonation(donation));
+                }
+            }
+        }
+    }
+
+    private void append(Donation claimed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(claimed.getId());
+            out.writeLong(claimed.getRedeemedAt().getTime());
+            out.writeUTF(claimed.getRedeemedByName());
+        }
+        byte[] record = bytes.toByteArray();
+        synchronized (logLock) {
+            pending.put(claimed.getId(), record);
+            try {
+                write(log, record);
+                log.force(false);
+            } catch (IOException e) {
+                pending.remove(claimed.getId());
+                throw e;
+            }
+            pendingLogBytes += record.length;
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void run() {
+        List<Donation> batch = new ArrayList<>(APPLY_BATCH_SIZE);
+        while (running || !toApply.isEmpty()) {
+            try {
+                Donation first = toApply.poll(APPLY_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                toApply.drainTo(batch, APPLY_BATCH_SIZE - 1);
+                applyUntilDone(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void applyUntilDone(List<Donation> batch) throws InterruptedException {
+        while (true) {
+            try {
+                reportLost(dbManager.applyRedemptions(batch));
+                break;
+            } catch (SQLException e) {
+                // The redemptions are safe in the log; keep retrying rather than dropping them
+                logger.warn("Failed to apply {} redemptions, retrying", batch.size(), e);
+                Thread.sleep(APPLY_RETRY_MS);
+            }
+        }
+        appliedCount.add(batch.size());
+        synchronized (logLock) {
+            for (Donation donation : batch) {
+                byte[] record = pending.remove(donation.getId());
+                if (record != null) {
+                    pendingLogBytes -= record.length;
+                }
+            }
+            if (pending.isEmpty()) {
+                try {
+                    log.truncate(0);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to truncate redemption log " + logPath, e);
+                }
+            } else {
+                compactIfMostlyApplied();
+            }
+        }
+    }
+
+    // Caller holds logLock. The old log stays in place, still complete, until the rename
+    private void compactIfMostlyApplied() {
+        try {
+            if (log.size() > Math.max(COMPACT_MIN_BYTES, COMPACT_RATIO * pendingLogBytes)) {
+                compact();
+            }
+        } catch (IOException e) {
+            // The current log still holds every pending redemption, so keep appending to it
+            logger.warn("Failed to compact redemption log {}", logPath, e);
+        }
+    }
+
+    private void compact() throws IOException {
+        Path compacted = logPath.resolveSibling(logPath.getFileName() + ".compact");
+        FileChannel next = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            for (byte[] record : pending.values()) {
+                write(next, record);
+            }
+            next.force(false);
+            Files.move(compacted, logPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            next.close();
+            throw e;
+        }
+        FileChannel previous = log;
+        log = next;
+        previous.close();
+    }
+
+    private void recover() throws IOException, SQLException {
+        if (!Files.exists(logPath)) {
+            return;
+        }
+        List<Donation> redeemed = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                Channels.newInputStream(FileChannel.open(logPath, StandardOpenOption.READ)))) {
+            while (true) {
+                Donation donation = new Donation();
+                donation.setId(in.readLong());
+                donation.setRedeemedAt(new Timestamp(in.readLong()));
+                donation.setRedeemedByName(in.readUTF());
+                redeemed.add(donation);
+            }
+        } catch (EOFException e) {
+            // End of log, or a record cut short by a crash before it was acknowledged
+        }
+        if (!redeemed.isEmpty()) {
+            reportLost(dbManager.applyRedemptions(redeemed));
+            logger.info("Recovered {} redemptions from {}", redeemed.size(), logPath);
+        }
+    }
+
+    private void reportLost(List<Donation> lost) {
+        for (Donation donation : lost) {
+            lostClaimCount.increment();
+            logger.error("Redemption of donation {} by {} was lost: the row was already redeemed or is gone",
+                donation.getId(), donation.getRedeemedByName());
+        }
+    }
+
+    public int getCachedTipperCount() {
+        synchronized (tippers) {
+            return tippers.size();
+        }
+    }
+
+    public long getClaimCount() { return claimCount.sum(); }
+    public long getLoadCount() { return loadCount.sum(); }
+    public long getAppliedCount() { return appliedCount.sum(); }
+    public int getPendingCount() { return pending.size(); }
+    public long getLostClaimCount() { return lostClaimCount.sum(); }
+
+    /**
+     * Applies every outstanding redemption before closing the log.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            applier.join();
+            synchronized (logLock) {
+                log.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("Failed to close redemption log {}", logPath, e);
+        }
+    }
+}
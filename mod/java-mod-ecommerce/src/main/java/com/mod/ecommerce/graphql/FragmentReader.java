@@ -0,0 +1,51 @@
+package com.mod.ecommerce.graphql;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a named root field of a GraphQL result into a typed view-model fragment with a single
+ * {@link ObjectMapper#convertValue} call. A field that cannot be decoded turns into an error on
+ * the response rather than an exception, so callers handle it like any other GraphQL error.
+ */
+class FragmentReader {
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    <F> GraphQLResponse<F> read(GraphQLResponse<Object> response, String rootField, Class<F> type) {
+        Object data = response.getData();
+        if (data == null) {
+            return new GraphQLResponse<>(null, response.getErrors());
+        }
+        if (!(data instanceof Map<?, ?> fields)) {
+            return withError(response, "GraphQL result is not an object", rootField);
+        }
+        Object value = fields.get(rootField);
+        if (value == null || type.isInstance(value)) {
+            return new GraphQLResponse<>(type.cast(value), response.getErrors());
+        }
+        try {
+            return new GraphQLResponse<>(objectMapper.convertValue(value, type), response.getErrors());
+        } catch (IllegalArgumentException e) {
+            return withError(response, "Failed to read " + rootField + " as " + type.getSimpleName()
+                + ": " + reason(e), rootField);
+        }
+    }
+
+    private static String reason(IllegalArgumentException e) {
+        return e.getCause() instanceof JsonProcessingException cause ? cause.getOriginalMessage() : e.getMessage();
+    }
+
+    private static <F> GraphQLResponse<F> withError(GraphQLResponse<Object> response, String message, String rootField) {
+        List<GraphQLError> errors = new ArrayList<>();
+        if (response.getErrors() != null) {
+            errors.addAll(response.getErrors());
+        }
+        errors.add(new GraphQLError(message, List.of(rootField), Map.of()));
+        return new GraphQLResponse<>(null, errors);
+    }
+}
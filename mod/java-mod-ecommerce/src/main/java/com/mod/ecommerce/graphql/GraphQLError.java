@@ -0,0 +1,20 @@
+package com.mod.ecommerce.graphql;
+
+import java.util.List;
+import java.util.Map;
+
+public class GraphQLError {
+    private final String message;
+    private final List<String> path;
+    private final Map<String, Object> extensions;
+
+    public GraphQLError(String message, List<String> path, Map<String, Object> extensions) {
+        this.message = message;
+        this.path = path;
+        this.extensions = extensions;
+    }
+
+    public String getMessage() { return message; }
+    public List<String> getPath() { return path; }
+    public Map<String, Object> getExtensions() { return extensions; }
+}
@@ -0,0 +1,9 @@
+package com.mod.ecommerce.graphql;
+
+import java.util.Map;
+
+public interface GraphQLOperation {
+    String getQuery();
+    Map<String, Object> getVariables();
+    String getOperationName();
+}
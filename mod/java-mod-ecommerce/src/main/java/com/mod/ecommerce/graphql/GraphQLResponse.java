@@ -0,0 +1,16 @@
+package com.mod.ecommerce.graphql;
+
+import java.util.List;
+
+public class GraphQLResponse<T> {
+    private final T data;
+    private final List<GraphQLError> errors;
+
+    public GraphQLResponse(T data, List<GraphQLError> errors) {
+        this.data = data;
+        this.errors = errors;
+    }
+
+    public T getData() { return data; }
+    public List<GraphQLError> getErrors() { return errors; }
+}
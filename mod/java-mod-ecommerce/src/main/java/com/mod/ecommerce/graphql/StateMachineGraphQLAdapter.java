@@ -1,18 +1,294 @@
 package com.mod.ecommerce.graphql;
 
+import com.mod.ecommerce.statemachine.GraphQLStateMachine;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.schema.AsyncDataFetcher;
+import graphql.schema.DataFetcher;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import graphql.schema.idl.TypeRuntimeWiring;
+import io.reactivex.rxjava3.core.BackpressureStrategy;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import org.reactivestreams.Publisher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 /**
- * Stub GraphQL adapter for state machines.
- * This is a placeholder implementation - full GraphQL integration can be added later.
+ * In-process GraphQL engine for state machines, built on graphql-java.
+ * The schema exposes every registered {@link GraphQLStateMachine}; callers can extend it with
+ * their own SDL and data fetchers (e.g. the order service) so operations never leave the JVM.
+ * Data fetchers run on the configured executor.
  */
 public class StateMachineGraphQLAdapter {
+    private static final int MAX_CACHED_DOCUMENTS = 1024;
+
+    private static final String SCHEMA = """
+        type Query {
+            machine(machineId: ID!): StateMachine
+            machines: [StateMachine!]!
+        }
+
+        type Mutation {
+            transition(machineId: ID!, state: String!): StateMachine
+        }
+
+        type Subscription {
+            stateUpdates(machineId: ID): StateUpdate
+        }
+
+        type StateMachine {
+            machineId: ID!
+            currentState: String
+        }
+
+        type StateUpdate {
+            machineId: ID!
+            state: String!
+            error: StateError
+        }
+
+        type StateError {
+            message: String
+            path: [String]
+        }
+    """;
+
+    private final Map<String, GraphQLStateMachine<?>> machines = new ConcurrentHashMap<>();
+    private final Subject<GraphQLStateMachine.StateUpdate> stateUpdates =
+        PublishSubject.<GraphQLStateMachine.StateUpdate>create().toSerialized();
+    private final FragmentReader fragmentReader = new FragmentReader();
+    private final Executor executor;
+    private final GraphQL graphQL;
+
+    public StateMachineGraphQLAdapter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public StateMachineGraphQLAdapter(Executor executor) {
+        this(executor, null, Map.of());
+    }
+
+    /**
+     * @param executor          executor that query and mutation data fetchers run on
+     * @param extensionSdl      optional SDL merged into the base schema, may use {@code extend type}
+     * @param extensionFetchers data fetchers keyed by type name, then field name
+     */
+    public StateMachineGraphQLAdapter(
+        Executor executor,
+        String extensionSdl,
+        Map<String, Map<String, DataFetcher<?>>> extensionFetchers
+    ) {
+        this.executor = executor;
+
+        SchemaParser parser = new SchemaParser();
+        TypeDefinitionRegistry registry = parser.parse(SCHEMA);
+        if (extensionSdl != null && !extensionSdl.isBlank()) {
+            registry.merge(parser.parse(extensionSdl));
+        }
+
+        RuntimeWiring.Builder wiring = RuntimeWiring.newRuntimeWiring()
+            .type(TypeRuntimeWiring.newTypeWiring("Query")
+                .dataFetcher("machine", async(env -> machines.get(env.<String>getArgument("machineId"))))
+                .dataFetcher("machines", async(env -> new ArrayList<>(machines.values()))))
+            .type(TypeRuntimeWiring.newTypeWiring("Mutation")
+                .dataFetcher("transition", async(env -> {
+                    GraphQLStateMachine<?> machine = machines.get(env.<String>getArgument("machineId"));
+                    if (machine != null) {
+                        machine.transition(env.getArgument("state"));
+                    }
+                    return machine;
+                })))
+            .type(TypeRuntimeWiring.newTypeWiring("Subscription")
+                .dataFetcher("stateUpdates", env -> {
+                    String machineId = env.getArgument("machineId");
+                    Observable<GraphQLStateMachine.StateUpdate> updates = machineId == null
+                        ? stateUpdates
+                        : stateUpdates.filter(update -> machineId.equals(update.getMachineId()));
+                    // A subscriber only needs a machine's latest state, so a slow one skips ahead
+                    return updates.toFlowable(BackpressureStrategy.LATEST);
+                }));
+
+        extensionFetchers.forEach((typeName, fetchers) -> {
+            TypeRuntimeWiring.Builder typeWiring = TypeRuntimeWiring.newTypeWiring(typeName);
+            // Subscription fetchers hand back a Publisher and must stay synchronous
+            boolean subscription = "Subscription".equals(typeName);
+            fetchers.forEach((field, fetcher) ->
+                typeWiring.dataFetcher(field, subscription ? fetcher : async(fetcher)));
+            wiring.type(typeWiring);
+        });
+
+        GraphQLSchema schema = new SchemaGenerator().makeExecutableSchema(registry, wiring.build());
+        this.graphQL = GraphQL.newGraphQL(schema)
+            .preparsedDocumentProvider(new CachingDocumentProvider())
+            .build();
+    }
+
+    private <T> DataFetcher<?> async(DataFetcher<T> fetcher) {
+        return AsyncDataFetcher.async(fetcher, executor);
+    }
+
+    /**
+     * Exposes a machine through the schema. Machine ids must be unique among registered machines.
+     */
+    public void register(GraphQLStateMachine<?> machine) {
+        GraphQLStateMachine<?> existing = machines.putIfAbsent(machine.getMachineId(), machine);
+        if (existing != null && existing != machine) {
+            throw new IllegalStateException("A machine is already registered as " + machine.getMachineId());
+        }
+    }
+
+    public void unregister(GraphQLStateMachine<?> machine) {
+        machines.remove(machine.getMachineId(), machine);
+    }
+
+    public Collection<GraphQLStateMachine<?>> getMachines() {
+        return machines.values();
+    }
+
+    public Observable<GraphQLStateMachine.StateUpdate> getStateUpdates() {
+        return stateUpdates;
+    }
+
+    public <T> CompletableFuture<GraphQLResponse<T>> query(GraphQLOperation operation) {
+        return execute(operation);
+    }
+
+    public <T> CompletableFuture<GraphQLResponse<T>> mutate(GraphQLOperation operation) {
+        return execute(operation);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Publisher<GraphQLResponse<T>> subscribe(GraphQLOperation operation) {
+        return Flowable.fromCompletionStage(graphQL.executeAsync(toInput(operation)))
+            .flatMap(result -> {
+                if (!result.getErrors().isEmpty() || !(result.getData() instanceof Publisher)) {
+                    return Flowable.just(this.<T>toResponse(result));
+                }
+                return Flowable.fromPublisher((Publisher<ExecutionResult>) result.getData())
+                    .map(this::<T>toResponse);
+            });
+    }
+
+    /**
+     * Runs a query and decodes its {@code rootField} into {@code fragmentType}. A field that does
+     * not decode is reported as an error on the response.
+     */
+    public <F> CompletableFuture<GraphQLResponse<F>> query(
+        GraphQLOperation operation, String rootField, Class<F> fragmentType
+    ) {
+        return this.<Object>query(operation).thenApply(response -> fragmentReader.read(response, rootField, fragmentType));
+    }
+
+    /**
+     * Runs a mutation and decodes its {@code rootField} into {@code fragmentType}.
+     */
+    public <F> CompletableFuture<GraphQLResponse<F>> mutate(
+        GraphQLOperation operation, String rootField, Class<F> fragmentType
+    ) {
+        return this.<Object>mutate(operation).thenApply(response -> fragmentReader.read(response, rootField, fragmentType));
+    }
+
+    /**
+     * Subscribes and decodes {@code rootField} of every event into {@code fragmentType}.
+     */
+    public <F> Publisher<GraphQLResponse<F>> subscribe(
+        GraphQLOperation operation, String rootField, Class<F> fragmentType
+    ) {
+        return Flowable.fromPublisher(this.<Object>subscribe(operation))
+            .map(response -> fragmentReader.read(response, rootField, fragmentType));
+    }
+
     public CompletableFuture<Map<String, Object>> query(String query, Map<String, Object> variables) {
-        return CompletableFuture.completedFuture(Map.of("data", Map.of()));
+        return graphQL.executeAsync(toInput(query, variables, null))
+            .thenApply(ExecutionResult::toSpecification);
     }
-    
+
     public CompletableFuture<Map<String, Object>> mutate(String mutation, Map<String, Object> variables) {
-        return CompletableFuture.completedFuture(Map.of("data", Map.of()));
+        return query(mutation, variables);
+    }
+
+    private <T> CompletableFuture<GraphQLResponse<T>> execute(GraphQLOperation operation) {
+        return graphQL.executeAsync(toInput(operation)).thenApply(this::<T>toResponse);
+    }
+
+    private ExecutionInput toInput(GraphQLOperation operation) {
+        return toInput(operation.getQuery(), operation.getVariables(), operation.getOperationName());
+    }
+
+    private ExecutionInput toInput(String query, Map<String, Object> variables, String operationName) {
+        return ExecutionInput.newExecutionInput()
+            .query(query)
+            .variables(variables != null ? variables : Map.of())
+            .operationName(operationName)
+            .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> GraphQLResponse<T> toResponse(ExecutionResult result) {
+        List<GraphQLError> errors = null;
+        if (!result.getErrors().isEmpty()) {
+            errors = new ArrayList<>(result.getErrors().size());
+            for (graphql.GraphQLError error : result.getErrors()) {
+                List<String> path = null;
+                if (error.getPath() != null) {
+                    path = new ArrayList<>(error.getPath().size());
+                    for (Object segment : error.getPath()) {
+                        path.add(String.valueOf(segment));
+                    }
+                }
+                errors.add(new GraphQLError(error.getMessage(), path, error.getExtensions()));
+            }
+        }
+        return new GraphQLResponse<>((T) result.getData(), errors);
+    }
+
+    /**
+     * Caches parsed and validated documents by query text. Machine handlers issue the same
+     * handful of operations over and over, so parsing once is most of the engine's per-call cost.
+     */
+    private static class CachingDocumentProvider implements PreparsedDocumentProvider {
+        private final Map<String, PreparsedDocumentEntry> cache = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(
+            ExecutionInput executionInput,
+            Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction
+        ) {
+            PreparsedDocumentEntry entry = cache.get(executionInput.getQuery());
+            if (entry == null) {
+                entry = parseAndValidateFunction.apply(executionInput);
+                if (!entry.hasErrors() && cache.size() < MAX_CACHED_DOCUMENTS) {
+                    cache.putIfAbsent(executionInput.getQuery(), entry);
+                }
+            }
+            return CompletableFuture.completedFuture(entry);
+        }
+
+        // Still abstract in graphql-java 21; the engine only calls getDocumentAsync
+        @Override
+        @Deprecated
+        public PreparsedDocumentEntry getDocument(
+            ExecutionInput executionInput,
+            Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction
+        ) {
+            return getDocumentAsync(executionInput, parseAndValidateFunction).join();
+        }
     }
 }
@@ -1,305 +1,370 @@
 package com.mod.ecommerce.statemachine;
 
 import com.mod.ecommerce.graphql.*;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.disposables.Disposable;
 
 public class BurgerOrderStateMachine {
+    private static final String GET_ORDER_STATUS = """
+        query GetOrderStatus($orderId: ID!) {
+            order(id: $orderId) {
+                id
+                status
+                items {
+                    id
+                    name
+                    quantity
+                }
+            }
+        }
+    """;
+
+    private static final String UPDATE_ORDER_STATUS = """
+        mutation UpdateOrderStatus($orderId: ID!, $status: String!) {
+            updateOrder(id: $orderId, status: $status) {
+                id
+                status
+            }
+        }
+    """;
+
+    private static final String KITCHEN_STATUS = """
+        subscription KitchenStatus($orderId: ID!) {
+            kitchenStatus(orderId: $orderId) {
+                status
+                estimatedTime
+                currentStep
+                nextStep
+            }
+        }
+    """;
+
+    private static final String ASSIGN_DELIVERY = """
+        mutation AssignDelivery($orderId: ID!) {
+            assignDelivery(orderId: $orderId) {
+                id
+                status
+                deliveryTime
+            }
+        }
+    """;
+
+    private static final String DELIVERY_STATUS = """
+        subscription DeliveryStatus($orderId: ID!) {
+            deliveryStatus(orderId: $orderId) {
+                status
+                location
+                estimatedArrival
+            }
+        }
+    """;
+
+    private static final String COMPLETE_ORDER = """
+        mutation CompleteOrder($orderId: ID!) {
+            completeOrder(orderId: $orderId) {
+                id
+                status
+                completionTime
+            }
+        }
+    """;
+
+    // Shared by every order: handlers are stateless and read per-order state from the context
+    private static final Map<String, Consumer<GraphQLStateMachine.StateContext<BurgerOrderViewModel>>> HANDLERS = Map.of(
+        "INITIAL", BurgerOrderStateMachine::onInitial,
+        "PROCESSING", BurgerOrderStateMachine::onProcessing,
+        "PREPARING", BurgerOrderStateMachine::onPreparing,
+        "READY_FOR_DELIVERY", BurgerOrderStateMachine::onReadyForDelivery,
+        "OUT_FOR_DELIVERY", BurgerOrderStateMachine::onOutForDelivery,
+        "COMPLETED", BurgerOrderStateMachine::onCompleted,
+        "FINAL", BurgerOrderStateMachine::onTerminal,
+        "ERROR", BurgerOrderStateMachine::onTerminal
+    );
+
     private final GraphQLStateMachine<BurgerOrderViewModel> machine;
-    private Disposable subscriptionDisposable;
 
     public static class BurgerOrderViewModel {
         private String orderId;
         private String status;
-        private Map<String, Object> orderData;
-        private Map<String, Object> kitchenStatus;
-        private Map<String, Object> deliveryStatus;
-
-        public BurgerOrderViewModel() {
-            this.orderData = new HashMap<>();
-            this.kitchenStatus = new HashMap<>();
-            this.deliveryStatus = new HashMap<>();
-        }
+        private OrderData orderData;
+        private KitchenStatus kitchenStatus;
+        private DeliveryStatus deliveryStatus;
+        private Disposable subscription;
 
         public String getOrderId() { return orderId; }
         public void setOrderId(String orderId) { this.orderId = orderId; }
         public String getStatus() { return status; }
         public void setStatus(String status) { this.status = status; }
-        public Map<String, Object> getOrderData() { return orderData; }
-        public void setOrderData(Map<String, Object> orderData) { this.orderData = orderData; }
-        public Map<String, Object> getKitchenStatus() { return kitchenStatus; }
-        public void setKitchenStatus(Map<String, Object> status) { this.kitchenStatus = status; }
-        public Map<String, Object> getDeliveryStatus() { return deliveryStatus; }
-        public void setDeliveryStatus(Map<String, Object> status) { this.deliveryStatus = status; }
+        public OrderData getOrderData() { return orderData; }
+        public void setOrderData(OrderData orderData) { this.orderData = orderData; }
+        public KitchenStatus getKitchenStatus() { return kitchenStatus; }
+        public void setKitchenStatus(KitchenStatus status) { this.kitchenStatus = status; }
+        public DeliveryStatus getDeliveryStatus() { return deliveryStatus; }
+        public void setDeliveryStatus(DeliveryStatus status) { this.deliveryStatus = status; }
+
+        void replaceSubscription(Disposable subscription) {
+            disposeSubscription();
+            this.subscription = subscription;
+        }
+
+        void disposeSubscription() {
+            if (subscription != null && !subscription.isDisposed()) {
+                subscription.dispose();
+            }
+            subscription = null;
+        }
     }
 
-    public BurgerOrderStateMachine(StateMachineGraphQLAdapter graphQLAdapter) {
-        Map<String, Consumer<GraphQLStateMachine.StateContext<BurgerOrderViewModel>>> handlers = new HashMap<>();
-        
-        // Define state handlers
-        handlers.put("INITIAL", context -> {
-            GraphQLOperation operation = new GraphQLOperation() {
-                @Override
-                public String getQuery() {
-                    return """
-                        query GetOrderStatus($orderId: ID!) {
-                            order(id: $orderId) {
-                                id
-                                status
-                                items {
-                                    id
-                                    name
-                                    quantity
-                                }
-                            }
-                        }
-                    """;
-                }
+    // View-model fragments, decoded directly from the root field of each operation
 
-                @Override
-                public Map<String, Object> getVariables() {
-                    return Map.of("orderId", context.getViewModel().getOrderId());
-                }
+    public static class OrderData {
+        private String id;
+        private String status;
+        private List<OrderItem> items;
+        private String completionTime;
 
-                @Override
-                public String getOperationName() {
-                    return "GetOrderStatus";
-                }
-            };
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+        public List<OrderItem> getItems() { return items; }
+        public void setItems(List<OrderItem> items) { this.items = items; }
+        public String getCompletionTime() { return completionTime; }
+        public void setCompletionTime(String completionTime) { this.completionTime = completionTime; }
+    }
 
-            context.getMachine().query(operation)
-                .thenAccept(response -> {
-                    if (response.getData() != null) {
-                        context.getViewModel().setOrderData((Map<String, Object>) response.getData());
-                        context.getViewModel().setStatus("PROCESSING");
-                        context.transition("PROCESSING");
-                    } else if (response.getErrors() != null && !response.getErrors().isEmpty()) {
-                        context.sendMessage(new GraphQLStateMachine.StateUpdate(
-                            "burger-order",
-                            "ERROR",
-                            null,
-                            response.getErrors().get(0)
-                        ));
-                        context.transition("ERROR");
-                    }
-                });
-        });
-
-        handlers.put("PROCESSING", context -> {
-            GraphQLOperation operation = new GraphQLOperation() {
-                @Override
-                public String getQuery() {
-                    return """
-                        mutation UpdateOrderStatus($orderId: ID!, $status: String!) {
-                            updateOrder(id: $orderId, status: $status) {
-                                id
-                                status
-                            }
-                        }
-                    """;
-                }
+    public static class OrderItem {
+        private String id;
+        private String name;
+        private int quantity;
+
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public int getQuantity() { return quantity; }
+        public void setQuantity(int quantity) { this.quantity = quantity; }
+    }
 
-                @Override
-                public Map<String, Object> getVariables() {
-                    return Map.of(
-                        "orderId", context.getViewModel().getOrderId(),
-                        "status", "PREPARING"
-                    );
-                }
+    public static class KitchenStatus {
+        private String status;
+        private String estimatedTime;
+        private String currentStep;
+        private String nextStep;
 
-                @Override
-                public String getOperationName() {
-                    return "UpdateOrderStatus";
-                }
-            };
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+        public String getEstimatedTime() { return estimatedTime; }
+        public void setEstimatedTime(String estimatedTime) { this.estimatedTime = estimatedTime; }
+        public String getCurrentStep() { return currentStep; }
+        public void setCurrentStep(String currentStep) { this.currentStep = currentStep; }
+        public String getNextStep() { return nextStep; }
+        public void setNextStep(String nextStep) { this.nextStep = nextStep; }
+    }
 
-            context.getMachine().mutate(operation)
-                .thenAccept(response -> {
-                    if (response.getData() != null) {
-                        Map<String, Object> data = (Map<String, Object>) response.getData();
-                        context.getViewModel().setStatus((String) data.get("status"));
-                        context.transition("PREPARING");
-                    }
-                });
-        });
-
-        handlers.put("PREPARING", context -> {
-            // Subscribe to kitchen status updates
-            GraphQLOperation operation = new GraphQLOperation() {
-                @Override
-                public String getQuery() {
-                    return """
-                        subscription KitchenStatus($orderId: ID!) {
-                            kitchenStatus(orderId: $orderId) {
-                                status
-                                estimatedTime
-                                currentStep
-                                nextStep
-                            }
-                        }
-                    """;
-                }
+    public static class DeliveryStatus {
+        private String id;
+        private String status;
+        private String deliveryTime;
+        private String location;
+        private String estimatedArrival;
+
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+        public String getDeliveryTime() { return deliveryTime; }
+        public void setDeliveryTime(String deliveryTime) { this.deliveryTime = deliveryTime; }
+        public String getLocation() { return location; }
+        public void setLocation(String location) { this.location = location; }
+        public String getEstimatedArrival() { return estimatedArrival; }
+        public void setEstimatedArrival(String estimatedArrival) { this.estimatedArrival = estimatedArrival; }
+    }
+
+    /**
+     * Operation bound to a single order. Query text and operation name come from the shared
+     * constants above, so the only per-call state is the variables map.
+     */
+    private static class OrderOperation implements GraphQLOperation {
+        private final String query;
+        private final String operationName;
+        private final Map<String, Object> variables;
+
+        OrderOperation(String query, String operationName, Map<String, Object> variables) {
+            this.query = query;
+            this.operationName = operationName;
+            this.variables = variables;
+        }
+
+        @Override
+        public String getQuery() { return query; }
+
+        @Override
+        public Map<String, Object> getVariables() { return variables; }
 
-                @Override
-                public Map<String, Object> getVariables() {
-                    return Map.of("orderId", context.getViewModel().getOrderId());
+        @Override
+        public String getOperationName() { return operationName; }
+    }
+
+    /**
+     * Creates the machine for one order. Its machine id is derived from the order id, so every
+     * live order is addressable on its own through the adapter.
+     */
+    public BurgerOrderStateMachine(StateMachineGraphQLAdapter graphQLAdapter, String orderId) {
+        BurgerOrderViewModel viewModel = new BurgerOrderViewModel();
+        viewModel.setOrderId(orderId);
+        this.machine = new GraphQLStateMachine<>(
+            machineIdFor(orderId),
+            graphQLAdapter,
+            viewModel,
+            HANDLERS
+        );
+    }
+
+    public static String machineIdFor(String orderId) {
+        return "burger-order:" + orderId;
+    }
+
+    private static void onInitial(GraphQLStateMachine.StateContext<BurgerOrderViewModel> context) {
+        GraphQLOperation operation = new OrderOperation(GET_ORDER_STATUS, "GetOrderStatus",
+            Map.of("orderId", context.getViewModel().getOrderId()));
+
+        context.getMachine().query(operation, "order", OrderData.class)
+            .thenAccept(response -> {
+                if (failed(context, response)) {
+                    return;
+                }
+                if (response.getData() != null) {
+                    context.getViewModel().setOrderData(response.getData());
+                    context.getViewModel().setStatus("PROCESSING");
+                    context.transition("PROCESSING");
                 }
+            });
+    }
 
-                @Override
-                public String getOperationName() {
-                    return "KitchenStatus";
+    private static void onProcessing(GraphQLStateMachine.StateContext<BurgerOrderViewModel> context) {
+        GraphQLOperation operation = new OrderOperation(UPDATE_ORDER_STATUS, "UpdateOrderStatus", Map.of(
+            "orderId", context.getViewModel().getOrderId(),
+            "status", "PREPARING"
+        ));
+
+        context.getMachine().mutate(operation, "updateOrder", OrderData.class)
+            .thenAccept(response -> {
+                if (failed(context, response)) {
+                    return;
+                }
+                if (response.getData() != null) {
+                    context.getViewModel().setStatus(response.getData().getStatus());
+                    context.transition("PREPARING");
                 }
-            };
+            });
+    }
+
+    private static void onPreparing(GraphQLStateMachine.StateContext<BurgerOrderViewModel> context) {
+        // Subscribe to kitchen status updates
+        GraphQLOperation operation = new OrderOperation(KITCHEN_STATUS, "KitchenStatus",
+            Map.of("orderId", context.getViewModel().getOrderId()));
 
-            subscriptionDisposable = Observable.fromPublisher(context.getMachine().subscribe(operation))
+        context.getViewModel().replaceSubscription(
+            Observable.fromPublisher(context.getMachine().subscribe(operation, "kitchenStatus", KitchenStatus.class))
                 .subscribe(response -> {
+                    if (failed(context, response)) {
+                        return;
+                    }
                     if (response.getData() != null) {
-                        Map<String, Object> data = (Map<String, Object>) response.getData();
+                        KitchenStatus data = response.getData();
                         context.getViewModel().setKitchenStatus(data);
-                        
-                        String status = (String) data.get("status");
-                        if ("READY".equals(status)) {
+
+                        if ("READY".equals(data.getStatus())) {
                             context.transition("READY_FOR_DELIVERY");
                         }
                     }
-                });
-        });
-
-        handlers.put("READY_FOR_DELIVERY", context -> {
-            GraphQLOperation operation = new GraphQLOperation() {
-                @Override
-                public String getQuery() {
-                    return """
-                        mutation AssignDelivery($orderId: ID!) {
-                            assignDelivery(orderId: $orderId) {
-                                id
-                                status
-                                deliveryTime
-                            }
-                        }
-                    """;
-                }
+                }));
+    }
 
-                @Override
-                public Map<String, Object> getVariables() {
-                    return Map.of("orderId", context.getViewModel().getOrderId());
-                }
+    private static void onReadyForDelivery(GraphQLStateMachine.StateContext<BurgerOrderViewModel> context) {
+        GraphQLOperation operation = new OrderOperation(ASSIGN_DELIVERY, "AssignDelivery",
+            Map.of("orderId", context.getViewModel().getOrderId()));
 
-                @Override
-                public String getOperationName() {
-                    return "AssignDelivery";
+        context.getMachine().mutate(operation, "assignDelivery", DeliveryStatus.class)
+            .thenAccept(response -> {
+                if (failed(context, response)) {
+                    return;
                 }
-            };
-
-            context.getMachine().mutate(operation)
-                .thenAccept(response -> {
-                    if (response.getData() != null) {
-                        Map<String, Object> data = (Map<String, Object>) response.getData();
-                        context.getViewModel().setDeliveryStatus(data);
-                        context.transition("OUT_FOR_DELIVERY");
-                    }
-                });
-        });
-
-        handlers.put("OUT_FOR_DELIVERY", context -> {
-            GraphQLOperation operation = new GraphQLOperation() {
-                @Override
-                public String getQuery() {
-                    return """
-                        subscription DeliveryStatus($orderId: ID!) {
-                            deliveryStatus(orderId: $orderId) {
-                                status
-                                location
-                                estimatedArrival
-                            }
-                        }
-                    """;
-                }
-
-                @Override
-                public Map<String, Object> getVariables() {
-                    return Map.of("orderId", context.getViewModel().getOrderId());
+                if (response.getData() != null) {
+                    context.getViewModel().setDeliveryStatus(response.getData());
+                    context.transition("OUT_FOR_DELIVERY");
                 }
+            });
+    }
 
-                @Override
-                public String getOperationName() {
-                    return "DeliveryStatus";
-                }
-            };
+    private static void onOutForDelivery(GraphQLStateMachine.StateContext<BurgerOrderViewModel> context) {
+        GraphQLOperation operation = new OrderOperation(DELIVERY_STATUS, "DeliveryStatus",
+            Map.of("orderId", context.getViewModel().getOrderId()));
 
-            subscriptionDisposable = Observable.fromPublisher(context.getMachine().subscribe(operation))
+        context.getViewModel().replaceSubscription(
+            Observable.fromPublisher(context.getMachine().subscribe(operation, "deliveryStatus", DeliveryStatus.class))
                 .subscribe(response -> {
+                    if (failed(context, response)) {
+                        return;
+                    }
                     if (response.getData() != null) {
-                        Map<String, Object> data = (Map<String, Object>) response.getData();
+                        DeliveryStatus data = response.getData();
                         context.getViewModel().setDeliveryStatus(data);
-                        
-                        String status = (String) data.get("status");
-                        if ("DELIVERED".equals(status)) {
+
+                        if ("DELIVERED".equals(data.getStatus())) {
                             context.transition("COMPLETED");
                         }
                     }
-                });
-        });
-
-        handlers.put("COMPLETED", context -> {
-            GraphQLOperation operation = new GraphQLOperation() {
-                @Override
-                public String getQuery() {
-                    return """
-                        mutation CompleteOrder($orderId: ID!) {
-                            completeOrder(orderId: $orderId) {
-                                id
-                                status
-                                completionTime
-                            }
-                        }
-                    """;
-                }
+                }));
+    }
 
-                @Override
-                public Map<String, Object> getVariables() {
-                    return Map.of("orderId", context.getViewModel().getOrderId());
-                }
+    private static void onCompleted(GraphQLStateMachine.StateContext<BurgerOrderViewModel> context) {
+        GraphQLOperation operation = new OrderOperation(COMPLETE_ORDER, "CompleteOrder",
+            Map.of("orderId", context.getViewModel().getOrderId()));
 
-                @Override
-                public String getOperationName() {
-                    return "CompleteOrder";
+        context.getMachine().mutate(operation, "completeOrder", OrderData.class)
+            .thenAccept(response -> {
+                if (failed(context, response)) {
+                    return;
                 }
-            };
-
-            context.getMachine().mutate(operation)
-                .thenAccept(response -> {
-                    if (response.getData() != null) {
-                        Map<String, Object> data = (Map<String, Object>) response.getData();
-                        context.getViewModel().setOrderData(data);
-                        context.transition("FINAL");
-                    }
-                });
-        });
+                if (response.getData() != null) {
+                    context.getViewModel().setOrderData(response.getData());
+                    context.transition("FINAL");
+                }
+            });
+    }
 
-        handlers.put("ERROR", context -> {
-            // Handle error state
-            if (subscriptionDisposable != null && !subscriptionDisposable.isDisposed()) {
-                subscriptionDisposable.dispose();
-            }
-        });
+    // Moves the machine to ERROR when a response carries errors and no usable data
+    private static boolean failed(
+        GraphQLStateMachine.StateContext<BurgerOrderViewModel> context,
+        GraphQLResponse<?> response
+    ) {
+        if (response.getData() != null || response.getErrors() == null || response.getErrors().isEmpty()) {
+            return false;
+        }
+        context.sendMessage(new GraphQLStateMachine.StateUpdate(
+            context.getMachine().getMachineId(),
+            "ERROR",
+            null,
+            response.getErrors().get(0)
+        ));
+        context.transition("ERROR");
+        return true;
+    }
 
-        // Create the state machine
-        this.machine = new GraphQLStateMachine<>(
-            "burger-order",
-            graphQLAdapter,
-            new BurgerOrderViewModel(),
-            handlers
-        );
+    // FINAL and ERROR: nothing more happens to the order, so it no longer holds a subscription
+    // or a slot in the adapter
+    private static void onTerminal(GraphQLStateMachine.StateContext<BurgerOrderViewModel> context) {
+        context.getViewModel().disposeSubscription();
+        context.getMachine().dispose();
     }
 
-    public void startOrder(String orderId) {
-        BurgerOrderViewModel viewModel = machine.getViewModel();
-        viewModel.setOrderId(orderId);
+    public void startOrder() {
+        machine.start();
         machine.transition("INITIAL");
     }
 
@@ -312,8 +377,7 @@ public class BurgerOrderStateMachine {
     }
 
     public void dispose() {
-        if (subscriptionDisposable != null && !subscriptionDisposable.isDisposed()) {
-            subscriptionDisposable.dispose();
-        }
+        machine.getViewModel().disposeSubscription();
+        machine.dispose();
     }
-} 
\ No newline at end of file
+}
@@ -1,6 +1,8 @@
 package com.mod.ecommerce.statemachine;
 
 import com.mod.ecommerce.graphql.*;
+import io.reactivex.rxjava3.disposables.Disposable;
+import org.reactivestreams.Publisher;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
@@ -9,8 +11,11 @@ public class GraphQLStateMachine<T> {
     private final String machineId;
     private final StateMachineGraphQLAdapter graphQLAdapter;
     private String currentState;
-    private T viewModel;
+    private final T viewModel;
     private final Map<String, Consumer<StateContext<T>>> stateHandlers;
+    // Handlers only ever see this machine and its view model, so one context is reused for every dispatch
+    private final StateContext<T> context;
+    private Disposable stateUpdatesDisposable;
 
     public static class StateContext<T> {
         private final GraphQLStateMachine<T> machine;
@@ -66,57 +71,59 @@ public class GraphQLStateMachine<T> {
         this.currentState = "INITIAL";
         this.viewModel = initialViewModel;
         this.stateHandlers = stateHandlers;
+        this.context = new StateContext<>(this, initialViewModel, this::transition, this::sendMessage);
+    }
 
-        // Subscribe to GraphQL state updates
-        graphQLAdapter.stateUpdates.collect(update -> {
-            if (update.getMachineId().equals(machineId)) {
-                handleStateUpdate(update);
-            }
-        });
+    /**
+     * Registers the machine with the adapter and subscribes it to its state updates. Kept out of
+     * the constructor so the adapter never sees a partially constructed machine.
+     */
+    public void start() {
+        if (stateUpdatesDisposable != null) {
+            throw new IllegalStateException("Machine " + machineId + " is already started");
+        }
+        graphQLAdapter.register(this);
+        stateUpdatesDisposable = graphQLAdapter.getStateUpdates()
+            .filter(update -> update.getMachineId().equals(machineId))
+            .subscribe(this::handleStateUpdate);
     }
 
     private void handleStateUpdate(StateUpdate update) {
         Consumer<StateContext<T>> handler = stateHandlers.get(update.getState());
         if (handler != null) {
-            handler.accept(new StateContext<>(
-                this,
-                viewModel,
-                this::transition,
-                this::sendMessage
-            ));
+            handler.accept(context);
         }
     }
 
-    public CompletableFuture<GraphQLResponse<T>> query(GraphQLOperation operation) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return graphQLAdapter.query(operation);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        });
+    public <R> CompletableFuture<GraphQLResponse<R>> query(GraphQLOperation operation) {
+        return graphQLAdapter.query(operation);
+    }
+
+    public <R> CompletableFuture<GraphQLResponse<R>> mutate(GraphQLOperation operation) {
+        return graphQLAdapter.mutate(operation);
     }
 
-    public CompletableFuture<GraphQLResponse<T>> mutate(GraphQLOperation operation) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return graphQLAdapter.mutate(operation);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        });
+    public <R> Publisher<GraphQLResponse<R>> subscribe(GraphQLOperation operation) {
+        return graphQLAdapter.subscribe(operation);
+    }
+
+    public <F> CompletableFuture<GraphQLResponse<F>> query(GraphQLOperation operation, String rootField, Class<F> fragmentType) {
+        return graphQLAdapter.query(operation, rootField, fragmentType);
+    }
+
+    public <F> CompletableFuture<GraphQLResponse<F>> mutate(GraphQLOperation operation, String rootField, Class<F> fragmentType) {
+        return graphQLAdapter.mutate(operation, rootField, fragmentType);
+    }
+
+    public <F> Publisher<GraphQLResponse<F>> subscribe(GraphQLOperation operation, String rootField, Class<F> fragmentType) {
+        return graphQLAdapter.subscribe(operation, rootField, fragmentType);
     }
 
     public void transition(String state) {
         currentState = state;
         Consumer<StateContext<T>> handler = stateHandlers.get(state);
         if (handler != null) {
-            handler.accept(new StateContext<>(
-                this,
-                viewModel,
-                this::transition,
-                this::sendMessage
-            ));
+            handler.accept(context);
         }
     }
 
@@ -124,6 +131,14 @@ public class GraphQLStateMachine<T> {
         // Handle message sending
     }
 
+    public void dispose() {
+        if (stateUpdatesDisposable != null) {
+            stateUpdatesDisposable.dispose();
+        }
+        graphQLAdapter.unregister(this);
+    }
+
+    public String getMachineId() { return machineId; }
     public String getCurrentState() { return currentState; }
     public T getViewModel() { return viewModel; }
 } 
\ No newline at end of file
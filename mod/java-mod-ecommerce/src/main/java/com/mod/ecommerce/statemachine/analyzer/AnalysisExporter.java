@@ -0,0 +1,432 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ships analyzer records to the static-analysis backend off the transition path.
+ *
+ * {@link #enqueue} only appends to a bounded lock-free queue; when the queue is full the oldest
+ * record is dropped and counted. A single daemon worker drains the queue in batches, flushing when
+ * a batch fills or the flush interval elapses. Batches are encoded as a stream of self-delimiting
+ * binary records and POSTed to the backend. Without a backend, records are discarded on enqueue.
+ *
+ * A failed POST marks the backend down. While it is down no batch is POSTed: each is written
+ * straight to the spool directory as its own file, so an outage costs a disk write per batch
+ * rather than a request timeout, and the in-memory queue keeps draining. The spool is a bounded
+ * ring: past its size limit the oldest batches are deleted. Every probe interval an empty batch
+ * is POSTed asynchronously, so the worker keeps spooling while the probe waits; once one succeeds
+ * the backend is up again and the spool is drained oldest first, one POST per batch, interleaved
+ * with live batches.
+ */
+public class AnalysisExporter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisExporter.class);
+    private static final byte RECORD_VERSION = 1;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    // Spooled batches replayed between checks of the live queue, so replay cannot starve it
+    private static final int REPLAY_BATCHES_PER_FLUSH = 16;
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final String backendUrl;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Path spoolDir;
+    private final long maxSpoolBytes;
+    private final HttpClient httpClient;
+
+    // Spooled batches, oldest first; only touched by the worker after construction
+    private final Deque<SpoolFile> spoolFiles = new ArrayDeque<>();
+    private long spoolBytes;
+    private long nextSpoolSequence;
+    // Set by a failed POST and cleared by a successful probe; only touched by the worker
+    private boolean backendDown;
+    private long nextProbeAt;
+    private CompletableFuture<Boolean> probe;
+
+    private final Queue<ExportRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private final LongAdder enqueuedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder exportedCount = new LongAdder();
+    private final LongAdder spooledCount = new LongAdder();
+    private final LongAdder spoolDroppedCount = new LongAdder();
+
+    public static class ExportRecord {
+        private final String machineId;
+        private final String currentState;
+        private final String fromState;
+        private final String operationName;
+        private final long timestamp;
+
+        public ExportRecord(
+            String machineId,
+            String currentState,
+            String fromState,
+            String operationName,
+            long timestamp
+        ) {
+            this.machineId = machineId;
+            this.currentState = currentState;
+            this.fromState = fromState;
+            this.operationName = operationName;
+            this.timestamp = timestamp;
+        }
+
+        public String getMachineId() { return machineId; }
+        public String getCurrentState() { return currentState; }
+        public String getFromState() { return fromState; }
+        public String getOperationName() { return operationName; }
+        public long getTimestamp() { return timestamp; }
+    }
+
+    private static class SpoolFile {
+        private final Path path;
+        private final long sequence;
+        private final int records;
+        private final long bytes;
+
+        SpoolFile(Path path, long sequence, int records, long bytes) {
+            this.path = path;
+            this.sequence = sequence;
+            this.records = records;
+            this.bytes = bytes;
+        }
+    }
+
+    public AnalysisExporter(String backendUrl) {
+        this(backendUrl, 8192, 256, Duration.ofSeconds(1), Paths.get("./data/analyzer-spool"), 64L * 1024 * 1024);
+    }
+
+    /**
+     * @param backendUrl    endpoint batches are POSTed to; when null records are discarded
+     * @param queueCapacity records held in memory before the oldest are dropped
+     * @param batchSize     records per batch; a full batch is flushed immediately
+     * @param flushInterval longest a partial batch waits before being flushed
+     * @param spoolDir      directory batches are written to while the backend is down
+     * @param maxSpoolBytes spool size past which the oldest spooled batches are deleted
+     */
+    public AnalysisExporter(
+        String backendUrl,
+        int queueCapacity,
+        int batchSize,
+        Duration flushInterval,
+        Path spoolDir,
+        long maxSpoolBytes
+    ) {
+        this.backendUrl = backendUrl;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.spoolDir = spoolDir;
+        this.maxSpoolBytes = maxSpoolBytes;
+        if (backendUrl == null) {
+            this.httpClient = null;
+            this.worker = null;
+            return;
+        }
+        this.httpClient = HttpClient.newBuilder().connectTimeout(REQUEST_TIMEOUT).build();
+        loadSpool();
+
+        this.worker = new Thread(this::run, "state-machine-analysis-exporter");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues a record for export. Never blocks; drops the oldest queued record when full, and
+     * drops every record when there is no backend.
+     */
+    public void enqueue(ExportRecord record) {
+        enqueuedCount.increment();
+        if (worker == null) {
+            droppedCount.increment();
+            return;
+        }
+        queue.offer(record);
+        int size = queued.incrementAndGet();
+        while (size > queueCapacity) {
+            if (queue.poll() != null) {
+                droppedCount.increment();
+                size = queued.decrementAndGet();
+            } else {
+                size = queued.get();
+            }
+        }
+        if (size == batchSize) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            if (queued.get() >= batchSize || now - lastFlush >= flushIntervalNanos) {
+                flush();
+                lastFlush = now;
+            }
+            if (backendDown) {
+                probe(now);
+            }
+            if (!backendDown && !spoolFiles.isEmpty()) {
+                // Keep draining without parking; live batches are still flushed between rounds
+                replaySpool(REPLAY_BATCHES_PER_FLUSH);
+                continue;
+            }
+            long wait = flushIntervalNanos - (System.nanoTime() - lastFlush);
+            if (wait > 0 && queued.get() < batchSize) {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+        flush();
+    }
+
+    private void flush() {
+        List<ExportRecord> batch = new ArrayList<>(batchSize);
+        ExportRecord record;
+        while ((record = queue.poll()) != null) {
+            queued.decrementAndGet();
+            batch.add(record);
+            if (batch.size() == batchSize) {
+                export(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            export(batch);
+        }
+    }
+
+    private void export(List<ExportRecord> batch) {
+        byte[] payload;
+        try {
+            payload = encode(batch);
+        } catch (IOException e) {
+            logger.warn("Failed to encode {} analyzer records", batch.size(), e);
+            droppedCount.add(batch.size());
+            return;
+        }
+
+        if (backendDown) {
+            spool(payload, batch.size());
+        } else if (post(payload)) {
+            exportedCount.add(batch.size());
+        } else {
+            markDown();
+            spool(payload, batch.size());
+        }
+    }
+
+    private void markDown() {
+        if (!backendDown) {
+            logger.warn("Analysis backend unavailable, spooling analyzer records until it answers again");
+            backendDown = true;
+        }
+        nextProbeAt = System.nanoTime() + PROBE_INTERVAL_NANOS;
+    }
+
+    // Starts a probe when one is due and acts on it once it has answered
+    private void probe(long now) {
+        if (probe == null) {
+            if (now - nextProbeAt >= 0) {
+                probe = httpClient.sendAsync(request(new byte[0]), HttpResponse.BodyHandlers.discarding())
+                    .handle((response, error) -> error == null && response.statusCode() / 100 == 2);
+            }
+            return;
+        }
+        if (!probe.isDone()) {
+            return;
+        }
+        boolean up = probe.join();
+        probe = null;
+        if (up) {
+            backendDown = false;
+            logger.info("Analysis backend reachable again, replaying {} spooled batches", spoolFiles.size());
+        } else {
+            markDown();
+        }
+    }
+
+    private boolean post(byte[] payload) {
+        try {
+            HttpResponse<Void> response = httpClient.send(request(payload), HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() / 100 == 2;
+        } catch (IOException e) {
+            logger.debug("Analysis backend unavailable: {}", e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private HttpRequest request(byte[] payload) {
+        return HttpRequest.newBuilder(URI.create(backendUrl))
+            .timeout(REQUEST_TIMEOUT)
+            .header("Content-Type", "application/octet-stream")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+            .build();
+    }
+
+    // Spool file names are <sequence>-<records>.bin so the ring can be rebuilt after a restart
+    private void loadSpool() {
+        if (!Files.isDirectory(spoolDir)) {
+            return;
+        }
+        List<SpoolFile> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDir, "*.bin")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int dash = name.indexOf('-');
+                try {
+                    long sequence = Long.parseLong(name.substring(0, dash));
+                    int records = Integer.parseInt(name.substring(dash + 1, name.length() - ".bin".length()));
+                    found.add(new SpoolFile(file, sequence, records, Files.size(file)));
+                } catch (RuntimeException e) {
+                    logger.warn("Ignoring unrecognised analyzer spool file {}", file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read analyzer spool {}", spoolDir, e);
+        }
+        found.sort(Comparator.comparingLong(file -> file.sequence));
+        for (SpoolFile file : found) {
+            spoolFiles.addLast(file);
+            spoolBytes += file.bytes;
+            nextSpoolSequence = file.sequence + 1;
+        }
+    }
+
+    private void spool(byte[] payload, int records) {
+        if (payload.length > maxSpoolBytes) {
+            spoolDroppedCount.add(records);
+            return;
+        }
+        // Make room by dropping the oldest batches, so the spool always holds the newest records
+        while (spoolBytes + payload.length > maxSpoolBytes && !spoolFiles.isEmpty()) {
+            SpoolFile oldest = spoolFiles.removeFirst();
+            deleteSpoolFile(oldest);
+            spoolDroppedCount.add(oldest.records);
+        }
+        long sequence = nextSpoolSequence++;
+        Path path = spoolDir.resolve(String.format("%020d-%d.bin", sequence, records));
+        try {
+            Files.createDirectories(spoolDir);
+            Files.write(path, payload);
+            spoolFiles.addLast(new SpoolFile(path, sequence, records, payload.length));
+            spoolBytes += payload.length;
+            spooledCount.add(records);
+        } catch (IOException e) {
+            logger.warn("Failed to spool {} analyzer records to {}", records, path, e);
+            spoolDroppedCount.add(records);
+        }
+    }
+
+    // Returns false, marking the backend down, if a replayed batch is not accepted
+    private boolean replaySpool(int maxBatches) {
+        for (int i = 0; i < maxBatches && !spoolFiles.isEmpty(); i++) {
+            SpoolFile oldest = spoolFiles.peekFirst();
+            byte[] payload;
+            try {
+                payload = Files.readAllBytes(oldest.path);
+            } catch (IOException e) {
+                logger.warn("Failed to read analyzer spool file {}", oldest.path, e);
+                spoolFiles.removeFirst();
+                deleteSpoolFile(oldest);
+                spoolDroppedCount.add(oldest.records);
+                continue;
+            }
+            if (!post(payload)) {
+                markDown();
+                return false;
+            }
+            spoolFiles.removeFirst();
+            deleteSpoolFile(oldest);
+            exportedCount.add(oldest.records);
+        }
+        return true;
+    }
+
+    private void deleteSpoolFile(SpoolFile file) {
+        spoolBytes -= file.bytes;
+        try {
+            Files.deleteIfExists(file.path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete analyzer spool file {}", file.path, e);
+        }
+    }
+
+    static byte[] encode(List<ExportRecord> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * 48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (ExportRecord record : batch) {
+                out.writeByte(RECORD_VERSION);
+                out.writeLong(record.getTimestamp());
+                writeNullable(out, record.getMachineId());
+                writeNullable(out, record.getCurrentState());
+                writeNullable(out, record.getFromState());
+                writeNullable(out, record.getOperationName());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    public long getEnqueuedCount() { return enqueuedCount.sum(); }
+    public long getDroppedCount() { return droppedCount.sum(); }
+    public long getExportedCount() { return exportedCount.sum(); }
+    public long getSpooledCount() { return spooledCount.sum(); }
+    public long getSpoolDroppedCount() { return spoolDroppedCount.sum(); }
+    public int getQueuedCount() { return queued.get(); }
+
+    /**
+     * Stops the worker after it flushes everything still queued.
+     */
+    @Override
+    public void close() {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + REQUEST_TIMEOUT.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
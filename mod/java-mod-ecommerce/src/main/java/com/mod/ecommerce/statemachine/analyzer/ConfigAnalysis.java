@@ -0,0 +1,130 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Load-time facts about one machine config, produced by {@link ConfigAnalyzer}. State paths are
+ * dot-separated from the top level, e.g. {@code "PREPARING"} or {@code "delivery.enRoute"}.
+ */
+public class ConfigAnalysis {
+    private static final String WILDCARD_EVENT = "*";
+
+    private final String configHash;
+    private final Set<String> reachableStates;
+    private final Set<String> unreachableStates;
+    private final Set<String> deadEndStates;
+    private final List<ShadowedTransition> shadowedTransitions;
+    private final List<String> unresolvedTargets;
+    private final Map<String, Set<String>> eventAlphabet;
+    // Events by full path and by leaf name; a name shared by several states gets all their events
+    private final Map<String, Set<String>> eventsByStateName;
+
+    public static class ShadowedTransition {
+        private final String state;
+        private final String event;
+        private final int index;
+        private final String shadowedBy;
+
+        public ShadowedTransition(String state, String event, int index, String shadowedBy) {
+            this.state = state;
+            this.event = event;
+            this.index = index;
+            this.shadowedBy = shadowedBy;
+        }
+
+        // Getters
+        public String getState() { return state; }
+        public String getEvent() { return event; }
+        public int getIndex() { return index; }
+        public String getShadowedBy() { return shadowedBy; }
+    }
+
+    public ConfigAnalysis(
+        String configHash,
+        Set<String> reachableStates,
+        Set<String> unreachableStates,
+        Set<String> deadEndStates,
+        List<ShadowedTransition> shadowedTransitions,
+        List<String> unresolvedTargets,
+        Map<String, Set<String>> eventAlphabet
+    ) {
+        this.configHash = configHash;
+        this.reachableStates = Set.copyOf(reachableStates);
+        this.unreachableStates = Set.copyOf(unreachableStates);
+        this.deadEndStates = Set.copyOf(deadEndStates);
+        this.shadowedTransitions = List.copyOf(shadowedTransitions);
+        this.unresolvedTargets = List.copyOf(unresolvedTargets);
+        this.eventAlphabet = Map.copyOf(eventAlphabet);
+        this.eventsByStateName = indexByStateName(this.eventAlphabet);
+    }
+
+    private static Map<String, Set<String>> indexByStateName(Map<String, Set<String>> eventAlphabet) {
+        Map<String, Set<String>> byName = new HashMap<>();
+        eventAlphabet.forEach((path, events) -> {
+            byName.computeIfAbsent(path, name -> new HashSet<>()).addAll(events);
+            int dot = path.lastIndexOf('.');
+            if (dot >= 0) {
+                byName.computeIfAbsent(path.substring(dot + 1), name -> new HashSet<>()).addAll(events);
+            }
+        });
+        Map<String, Set<String>> copy = new HashMap<>();
+        byName.forEach((name, events) -> copy.put(name, Set.copyOf(events)));
+        return Map.copyOf(copy);
+    }
+
+    /**
+     * Whether a machine in the given state has any transition, its own or inherited, for the
+     * event. False means dispatching it can only be a no-op, so callers may reject it up front.
+     * The state may be a full path or, as machines report nested states, just its leaf name; a
+     * leaf name used by several states accepts the events of any of them. A state the config does
+     * not declare, e.g. a runtime-only {@code INITIAL}, cannot be decided and is accepted.
+     */
+    public boolean accepts(String state, String event) {
+        Set<String> events = state != null ? eventsByStateName.get(state) : null;
+        return events == null || events.contains(event) || events.contains(WILDCARD_EVENT);
+    }
+
+    public Set<String> eventsFor(String state) {
+        return eventsByStateName.getOrDefault(state, Set.of());
+    }
+
+    /**
+     * Human-readable findings, empty when the config passes validation.
+     */
+    public List<String> getProblems() {
+        List<String> problems = new ArrayList<>();
+        for (String target : unresolvedTargets) {
+            problems.add("Unresolved transition target: " + target);
+        }
+        for (String state : unreachableStates) {
+            problems.add("Unreachable state: " + state);
+        }
+        for (String state : deadEndStates) {
+            problems.add("Dead-end non-final state: " + state);
+        }
+        for (ShadowedTransition shadowed : shadowedTransitions) {
+            problems.add("Shadowed transition: " + shadowed.getState() + " on " + shadowed.getEvent()
+                + "[" + shadowed.getIndex() + "] (" + shadowed.getShadowedBy() + ")");
+        }
+        return problems;
+    }
+
+    public boolean isValid() {
+        return unresolvedTargets.isEmpty() && unreachableStates.isEmpty()
+            && deadEndStates.isEmpty() && shadowedTransitions.isEmpty();
+    }
+
+    // Getters
+    public String getConfigHash() { return configHash; }
+    public Set<String> getReachableStates() { return reachableStates; }
+    public Set<String> getUnreachableStates() { return unreachableStates; }
+    public Set<String> getDeadEndStates() { return deadEndStates; }
+    public List<ShadowedTransition> getShadowedTransitions() { return shadowedTransitions; }
+    public List<String> getUnresolvedTargets() { return unresolvedTargets; }
+    public Map<String, Set<String>> getEventAlphabet() { return eventAlphabet; }
+}
@@ -0,0 +1,425 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Static analysis of XState-style machine configs, the same shape tome configs carry: nested
+ * {@code states}, {@code initial}, {@code type} ({@code final}, {@code parallel}, {@code history}),
+ * {@code on} event maps, and the automatic {@code always}, {@code after}, {@code onDone} and
+ * {@code invoke} transitions.
+ *
+ * Results are cached by a SHA-256 of the config serialized with sorted keys, so re-analysing an
+ * unchanged config is one hash. Only {@code on} events count towards a state's event alphabet;
+ * automatic transitions matter for reachability and dead ends but cannot be dispatched.
+ */
+public class ConfigAnalyzer {
+    private static final int MAX_CACHED_ANALYSES = 256;
+
+    private final ObjectMapper canonicalMapper = new ObjectMapper()
+        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private final Map<String, ConfigAnalysis> cache = new ConcurrentHashMap<>();
+
+    public ConfigAnalysis analyze(Map<String, Object> config) {
+        String hash = hash(config);
+        ConfigAnalysis analysis = cache.get(hash);
+        if (analysis == null) {
+            analysis = new Walker(hash, config).analyze();
+            if (cache.size() < MAX_CACHED_ANALYSES) {
+                cache.putIfAbsent(hash, analysis);
+            }
+        }
+        return analysis;
+    }
+
+    public String hash(Map<String, Object> config) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonicalMapper.writeValueAsBytes(config)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Machine config is not serializable", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static class Node {
+        private final String path;
+        private final Node parent;
+        private final String type;
+        private final Map<String, Node> children = new LinkedHashMap<>();
+        private final Map<String, List<Candidate>> events = new LinkedHashMap<>();
+        private final List<Candidate> automatic = new ArrayList<>();
+        private String initial;
+
+        Node(String path, Node parent, String type) {
+            this.path = path;
+            this.parent = parent;
+            this.type = type;
+        }
+
+        boolean isAtomic() {
+            return children.isEmpty() && !"history".equals(type);
+        }
+
+        boolean isDescendantOf(Node ancestor) {
+            for (Node node = this; node != null; node = node.parent) {
+                if (node == ancestor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Candidate {
+        private final List<String> rawTargets;
+        private final boolean guarded;
+        private final List<Node> targets = new ArrayList<>();
+
+        Candidate(List<String> rawTargets, boolean guarded) {
+            this.rawTargets = rawTargets;
+            this.guarded = guarded;
+        }
+    }
+
+    private static class Walker {
+        private final String hash;
+        private final Map<String, Object> config;
+        private final Map<String, Node> nodesByPath = new LinkedHashMap<>();
+        private final Map<String, Node> nodesById = new HashMap<>();
+        private final List<String> unresolvedTargets = new ArrayList<>();
+        private Node root;
+
+        Walker(String hash, Map<String, Object> config) {
+            this.hash = hash;
+            this.config = config;
+        }
+
+        ConfigAnalysis analyze() {
+            root = parse("", null, config);
+            for (Node node : nodesByPath.values()) {
+                node.events.values().forEach(candidates -> candidates.forEach(c -> resolve(node, c)));
+                node.automatic.forEach(c -> resolve(node, c));
+            }
+            checkInitialStates();
+
+            Set<Node> reached = reach();
+            Set<String> reachable = new LinkedHashSet<>();
+            Set<String> unreachable = new LinkedHashSet<>();
+            Set<String> deadEnds = new LinkedHashSet<>();
+            for (Node node : nodesByPath.values()) {
+                if (node == root) {
+                    continue;
+                }
+                if (!reached.contains(node)) {
+                    unreachable.add(node.path);
+                    continue;
+                }
+                reachable.add(node.path);
+                if (node.isAtomic() && !"final".equals(node.type) && !hasExit(node)) {
+                    deadEnds.add(node.path);
+                }
+            }
+
+            return new ConfigAnalysis(
+                hash,
+                reachable,
+                unreachable,
+                deadEnds,
+                shadowedTransitions(),
+                unresolvedTargets,
+                eventAlphabet()
+            );
+        }
+
+        @SuppressWarnings("unchecked")
+        private Node parse(String path, Node parent, Map<String, Object> raw) {
+            Object states = raw.get("states");
+            String type = raw.get("type") instanceof String ? (String) raw.get("type")
+                : states instanceof Map && !((Map<?, ?>) states).isEmpty() ? "compound" : "atomic";
+            Node node = new Node(path, parent, type);
+            nodesByPath.put(path, node);
+            if (raw.get("id") instanceof String) {
+                nodesById.put((String) raw.get("id"), node);
+            }
+            node.initial = raw.get("initial") instanceof String ? (String) raw.get("initial") : null;
+
+            if (raw.get("on") instanceof Map) {
+                for (Map.Entry<String, Object> entry : ((Map<String, Object>) raw.get("on")).entrySet()) {
+                    node.events.put(entry.getKey(), candidates(entry.getValue()));
+                }
+            }
+            node.automatic.addAll(candidates(raw.get("always")));
+            node.automatic.addAll(candidates(raw.get("onDone")));
+            if (raw.get("after") instanceof Map) {
+                for (Object spec : ((Map<String, Object>) raw.get("after")).values()) {
+                    node.automatic.addAll(candidates(spec));
+                }
+            }
+            Object invoke = raw.get("invoke");
+            List<Object> services = invoke instanceof List ? (List<Object>) invoke
+                : invoke != null ? List.of(invoke) : List.of();
+            for (Object service : services) {
+                if (service instanceof Map) {
+                    node.automatic.addAll(candidates(((Map<String, Object>) service).get("onDone")));
+                    node.automatic.addAll(candidates(((Map<String, Object>) service).get("onError")));
+                }
+            }
+
+            if (states instanceof Map) {
+                for (Map.Entry<String, Object> entry : ((Map<String, Object>) states).entrySet()) {
+                    if (entry.getValue() instanceof Map) {
+                        String childPath = path.isEmpty() ? entry.getKey() : path + "." + entry.getKey();
+                        node.children.put(entry.getKey(),
+                            parse(childPath, node, (Map<String, Object>) entry.getValue()));
+                    }
+                }
+            }
+            return node;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Candidate> candidates(Object spec) {
+            List<Candidate> candidates = new ArrayList<>();
+            if (spec == null) {
+                return candidates;
+            }
+            if (spec instanceof List) {
+                for (Object element : (List<Object>) spec) {
+                    candidates.addAll(candidates(element));
+                }
+            } else if (spec instanceof String) {
+                candidates.add(new Candidate(List.of((String) spec), false));
+            } else if (spec instanceof Map) {
+                Map<String, Object> transition = (Map<String, Object>) spec;
+                Object target = transition.get("target");
+                List<String> targets = new ArrayList<>();
+                if (target instanceof String) {
+                    targets.add((String) target);
+                } else if (target instanceof List) {
+                    for (Object element : (List<Object>) target) {
+                        if (element instanceof String) {
+                            targets.add((String) element);
+                        }
+                    }
+                }
+                boolean guarded = transition.get("cond") != null || transition.get("guard") != null;
+                candidates.add(new Candidate(targets, guarded));
+            }
+            return candidates;
+        }
+
+        private void checkInitialStates() {
+            for (Node node : nodesByPath.values()) {
+                if (node.initial != null && !node.children.containsKey(node.initial)) {
+                    unresolvedTargets.add(label(node) + " initial -> " + node.initial);
+                }
+            }
+        }
+
+        private void resolve(Node source, Candidate candidate) {
+            for (String raw : candidate.rawTargets) {
+                Node target;
+                if (raw.startsWith("#")) {
+                    String id = raw.substring(1);
+                    target = nodesById.containsKey(id) ? nodesById.get(id) : nodesByPath.get(id);
+                } else if (raw.startsWith(".")) {
+                    target = nodesByPath.get(source.path.isEmpty() ? raw.substring(1) : source.path + raw);
+                } else {
+                    String base = source.parent == null || source.parent.path.isEmpty() ? "" : source.parent.path + ".";
+                    target = nodesByPath.get(base + raw);
+                }
+                if (target != null) {
+                    candidate.targets.add(target);
+                } else {
+                    unresolvedTargets.add(label(source) + " -> " + raw);
+                }
+            }
+        }
+
+        private Set<Node> reach() {
+            Set<Node> reached = new HashSet<>();
+            Set<Node> entered = new HashSet<>();
+            Deque<Node> pending = new ArrayDeque<>();
+            enter(root, reached, entered, pending);
+            while (!pending.isEmpty()) {
+                Node node = pending.poll();
+                for (List<Candidate> candidates : node.events.values()) {
+                    for (Candidate candidate : candidates) {
+                        candidate.targets.forEach(target -> enter(target, reached, entered, pending));
+                    }
+                }
+                for (Candidate candidate : node.automatic) {
+                    candidate.targets.forEach(target -> enter(target, reached, entered, pending));
+                }
+            }
+            return reached;
+        }
+
+        private void enter(Node node, Set<Node> reached, Set<Node> entered, Deque<Node> pending) {
+            Deque<Node> toEnter = new ArrayDeque<>();
+            toEnter.push(node);
+            while (!toEnter.isEmpty()) {
+                Node current = toEnter.pop();
+                if (!entered.add(current)) {
+                    continue;
+                }
+                if (reached.add(current)) {
+                    pending.add(current);
+                }
+                // Entering a state activates its ancestors and every sibling region of a parallel ancestor
+                for (Node child = current, ancestor = current.parent; ancestor != null; child = ancestor, ancestor = ancestor.parent) {
+                    if (reached.add(ancestor)) {
+                        pending.add(ancestor);
+                    }
+                    if ("parallel".equals(ancestor.type)) {
+                        for (Node region : ancestor.children.values()) {
+                            if (region != child) {
+                                toEnter.push(region);
+                            }
+                        }
+                    }
+                }
+                if ("parallel".equals(current.type)) {
+                    current.children.values().forEach(toEnter::push);
+                } else if ("history".equals(current.type) && current.parent != null) {
+                    toEnter.push(current.parent);
+                } else if (!current.children.isEmpty()) {
+                    Node initial = current.initial != null ? current.children.get(current.initial) : null;
+                    toEnter.push(initial != null ? initial : current.children.values().iterator().next());
+                }
+            }
+        }
+
+        private boolean hasExit(Node leaf) {
+            for (Node node = leaf; node != null; node = node.parent) {
+                if (leavesState(node, leaf)) {
+                    return true;
+                }
+                // Another region of a parallel ancestor can leave the whole parallel state
+                if ("parallel".equals(node.type)) {
+                    for (Node other : nodesByPath.values()) {
+                        if (other != node && other.isDescendantOf(node) && !leaf.isDescendantOf(other)
+                                && leavesParallel(other, node)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean leavesState(Node source, Node leaf) {
+            for (Candidate candidate : allCandidates(source)) {
+                for (Node target : candidate.targets) {
+                    if (target != leaf || source != leaf) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean leavesParallel(Node source, Node parallel) {
+            for (Candidate candidate : allCandidates(source)) {
+                for (Node target : candidate.targets) {
+                    if (!target.isDescendantOf(parallel) || target == parallel) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private List<Candidate> allCandidates(Node node) {
+            List<Candidate> all = new ArrayList<>(node.automatic);
+            node.events.values().forEach(all::addAll);
+            return all;
+        }
+
+        private List<ConfigAnalysis.ShadowedTransition> shadowedTransitions() {
+            List<ConfigAnalysis.ShadowedTransition> shadowed = new ArrayList<>();
+            for (Node node : nodesByPath.values()) {
+                for (Map.Entry<String, List<Candidate>> entry : node.events.entrySet()) {
+                    List<Candidate> candidates = entry.getValue();
+                    int unguarded = firstUnguarded(candidates);
+                    for (int i = unguarded + 1; unguarded >= 0 && i < candidates.size(); i++) {
+                        shadowed.add(new ConfigAnalysis.ShadowedTransition(label(node), entry.getKey(), i,
+                            "unguarded transition at index " + unguarded + " always wins"));
+                    }
+                    if (!node.children.isEmpty() && handledByEveryLeaf(node, entry.getKey())) {
+                        for (int i = 0; i < candidates.size(); i++) {
+                            shadowed.add(new ConfigAnalysis.ShadowedTransition(label(node), entry.getKey(), i,
+                                "every child state handles the event unconditionally"));
+                        }
+                    }
+                }
+            }
+            return shadowed;
+        }
+
+        private boolean handledByEveryLeaf(Node ancestor, String event) {
+            boolean anyLeaf = false;
+            for (Node leaf : nodesByPath.values()) {
+                if (leaf == ancestor || !leaf.isAtomic() || !leaf.isDescendantOf(ancestor)) {
+                    continue;
+                }
+                anyLeaf = true;
+                boolean handled = false;
+                for (Node node = leaf; node != ancestor && !handled; node = node.parent) {
+                    List<Candidate> candidates = node.events.get(event);
+                    handled = candidates != null && firstUnguarded(candidates) >= 0;
+                }
+                if (!handled) {
+                    return false;
+                }
+            }
+            return anyLeaf;
+        }
+
+        private static int firstUnguarded(List<Candidate> candidates) {
+            for (int i = 0; i < candidates.size(); i++) {
+                if (!candidates.get(i).guarded) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Map<String, Set<String>> eventAlphabet() {
+            Map<String, Set<String>> alphabet = new TreeMap<>();
+            for (Node node : nodesByPath.values()) {
+                if (node == root) {
+                    continue;
+                }
+                Set<String> events = new LinkedHashSet<>();
+                for (Node current = node; current != null; current = current.parent) {
+                    events.addAll(current.events.keySet());
+                }
+                alphabet.put(node.path, Set.copyOf(events));
+            }
+            return alphabet;
+        }
+
+        private static String label(Node node) {
+            return node.path.isEmpty() ? "(root)" : node.path;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory, log-bucketed histogram of how long machines stay in a state, in milliseconds.
+ *
+ * Values below 16 get exact buckets; above that every power of two is split into 16 linear
+ * sub-buckets, so a reported percentile is within about 6% of the true value. The bucket array
+ * covers every non-negative {@code long} and never grows.
+ */
+public class DwellTimeHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long valueMs) {
+        long value = Math.max(0, valueMs);
+        counts.incrementAndGet(bucketIndex(value));
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, max.get());
+    }
+
+    /**
+     * Returns the counts accumulated so far and starts a new interval from zero.
+     */
+    public Snapshot snapshotAndReset() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.getAndSet(i, 0);
+        }
+        return new Snapshot(copy, max.getAndSet(0));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lower + width - 1;
+    }
+
+    /**
+     * Immutable copy of a histogram's buckets. Snapshots from different machines or intervals
+     * can be merged before querying.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long max;
+        private final long totalCount;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        public static Snapshot empty() {
+            return new Snapshot(new long[BUCKET_COUNT], 0);
+        }
+
+        public Snapshot merge(Snapshot other) {
+            long[] merged = Arrays.copyOf(counts, BUCKET_COUNT);
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                merged[i] += other.counts[i];
+            }
+            return new Snapshot(merged, Math.max(max, other.max));
+        }
+
+        /**
+         * Value at the given quantile, e.g. 0.99 for p99. Returns the upper bound of the bucket
+         * holding that rank, capped at the largest recorded value.
+         */
+        public long valueAtQuantile(double quantile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        public long getP50() { return valueAtQuantile(0.50); }
+        public long getP99() { return valueAtQuantile(0.99); }
+        public long getP999() { return valueAtQuantile(0.999); }
+        public long getMax() { return max; }
+        public long getTotalCount() { return totalCount; }
+    }
+}
@@ -0,0 +1,44 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Controls when the analyzer collapses machines into summaries.
+ *
+ * A machine that enters a terminal state keeps its full record while the completed records fit
+ * in {@code completedBudgetBytes}; past that the oldest are summarized and evicted. A machine
+ * with no transition for {@code idleTtl} is summarized and evicted on the next sweep. At most
+ * {@code maxSummaries} summaries are kept, oldest dropped first.
+ */
+public class EvictionPolicy {
+    private final Set<String> terminalStates;
+    private final Duration idleTtl;
+    private final long completedBudgetBytes;
+    private final int maxSummaries;
+
+    public EvictionPolicy(
+        Set<String> terminalStates,
+        Duration idleTtl,
+        long completedBudgetBytes,
+        int maxSummaries
+    ) {
+        this.terminalStates = Set.copyOf(terminalStates);
+        this.idleTtl = idleTtl;
+        this.completedBudgetBytes = completedBudgetBytes;
+        this.maxSummaries = maxSummaries;
+    }
+
+    public static EvictionPolicy defaults() {
+        return new EvictionPolicy(Set.of("FINAL", "ERROR"), Duration.ofHours(1), 64L * 1024 * 1024, 1_000_000);
+    }
+
+    public boolean isTerminal(String state) {
+        return state != null && terminalStates.contains(state);
+    }
+
+    public Set<String> getTerminalStates() { return terminalStates; }
+    public Duration getIdleTtl() { return idleTtl; }
+    public long getCompletedBudgetBytes() { return completedBudgetBytes; }
+    public int getMaxSummaries() { return maxSummaries; }
+}
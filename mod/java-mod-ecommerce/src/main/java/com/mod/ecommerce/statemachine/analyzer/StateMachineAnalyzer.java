@@ -1,52 +1,218 @@
 package com.mod.ecommerce.statemachine.analyzer;
 
 import com.mod.ecommerce.graphql.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanContext;
 import io.opentelemetry.api.trace.Tracer;
 
-public class StateMachineAnalyzer {
+public class StateMachineAnalyzer implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(StateMachineAnalyzer.class);
-    private final Map<String, StateMachineInfo> activeMachines = new ConcurrentHashMap<>();
+    private static final int DEFAULT_HISTORY_CAPACITY = 128;
+    // Machine type for machines registered without one; they all share one graph
+    public static final String DEFAULT_MACHINE_TYPE = "default";
+    private static final long IDLE_SWEEP_SECONDS = 30;
+    // Rough per-machine heap estimates used against the completed-machine budget
+    private static final int MACHINE_OVERHEAD_BYTES = 256;
+    private static final int SLOT_BYTES = Long.BYTES + 4;
+    private static final int TRANSITION_BYTES = 96;
+    private static final AttributeKey<String> MACHINE_ID = AttributeKey.stringKey("machine.id");
+    private static final AttributeKey<String> MACHINE_INITIAL_STATE = AttributeKey.stringKey("machine.initial_state");
+    private static final AttributeKey<String> TRANSITION_FROM = AttributeKey.stringKey("transition.from");
+    private static final AttributeKey<String> TRANSITION_TO = AttributeKey.stringKey("transition.to");
+    private static final AttributeKey<String> OPERATION_NAME = AttributeKey.stringKey("operation.name");
+    // Sorted by machine id so state-tree pages and prefix filters can seek instead of scanning
+    private final ConcurrentNavigableMap<String, StateMachineInfo> activeMachines = new ConcurrentSkipListMap<>();
+    // One graph per machine type, kept for the analyzer's lifetime so edge counts and dwell times
+    // stay cumulative; untyped machines share DEFAULT_MACHINE_TYPE, which bounds the number of graphs
+    private final Map<String, TransitionGraph> transitionGraphs = new ConcurrentHashMap<>();
     private final Tracer tracer;
-    private final String backendUrl;
+    private final TraceSampler sampler;
+    private final AnalysisExporter exporter;
+    private final int historyCapacity;
+    private final LongAdder registeredCount = new LongAdder();
+    private final LongAdder transitionCount = new LongAdder();
+    private final LongAdder sampledSpanCount = new LongAdder();
+    private volatile TransitionJournal journal;
+    private volatile EvictionPolicy evictionPolicy = EvictionPolicy.defaults();
+    // Completed machines still held in full, oldest first, and their estimated footprint
+    private final Queue<StateMachineInfo> completedMachines = new ConcurrentLinkedQueue<>();
+    private final AtomicLong completedBytes = new AtomicLong();
+    private final Map<String, MachineSummary> summaries = new ConcurrentHashMap<>();
+    private final Queue<MachineSummary> summaryOrder = new ConcurrentLinkedQueue<>();
+    private final LongAdder evictedCount = new LongAdder();
+    private final ScheduledExecutorService sweeper;
+    private final ConfigAnalyzer configAnalyzer = new ConfigAnalyzer();
+    private final Map<String, ConfigAnalysis> configAnalyses = new ConcurrentHashMap<>();
 
     public static class StateMachineInfo {
         private final String machineId;
-        private final String currentState;
-        private final List<String> stateHistory;
+        private final TransitionGraph graph;
+        private final boolean sampled;
+        private volatile String currentState;
+        private final TransitionHistory history;
         private final Map<String, Object> viewModel;
-        private final List<Transition> pendingTransitions;
-        private final SpanContext traceContext;
+        private volatile SpanContext traceContext;
+        private final long registeredAt;
+        private volatile long stateEnteredAt;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        // Charged against the completed budget; whoever takes it back first releases it
+        private final AtomicLong completedBytes = new AtomicLong();
+        // Interned ids of states this machine has transitioned into; guarded by this
+        private final BitSet visitedStates = new BitSet();
+        private volatile List<String> firstCycle;
 
         public StateMachineInfo(
             String machineId,
+            TransitionGraph graph,
+            boolean sampled,
             String currentState,
-            List<String> stateHistory,
+            TransitionHistory history,
             Map<String, Object> viewModel,
-            List<Transition> pendingTransitions,
-            SpanContext traceContext
+            SpanContext traceContext,
+            long registeredAt
         ) {
             this.machineId = machineId;
+            this.graph = graph;
+            this.sampled = sampled;
             this.currentState = currentState;
-            this.stateHistory = stateHistory;
+            this.history = history;
             this.viewModel = viewModel;
-            this.pendingTransitions = pendingTransitions;
             this.traceContext = traceContext;
+            this.registeredAt = registeredAt;
+            this.stateEnteredAt = registeredAt;
+        }
+
+        long estimateRetainedBytes() {
+            long retained = Math.min(history.getTotalCount(), history.getCapacity());
+            return MACHINE_OVERHEAD_BYTES + (long) history.getCapacity() * SLOT_BYTES + retained * TRANSITION_BYTES;
+        }
+
+        MachineSummary summarize() {
+            return new MachineSummary(
+                machineId,
+                graph.getMachineType(),
+                currentState,
+                registeredAt,
+                stateEnteredAt,
+                history.getTotalCount()
+            );
+        }
+
+        void recordTransition(Transition transition, SpanContext traceContext) {
+            history.append(transition);
+            this.currentState = transition.getTo();
+            if (traceContext != null) {
+                this.traceContext = traceContext;
+            }
+            long enteredAt = stateEnteredAt;
+            this.stateEnteredAt = transition.getTimestamp();
+
+            if (transition.getFrom() == null || transition.getTo() == null) {
+                return;
+            }
+            int fromId = graph.stateId(transition.getFrom());
+            int toId = graph.stateId(transition.getTo());
+            graph.recordEdge(fromId, toId);
+            graph.dwellTime(fromId).record(transition.getTimestamp() - enteredAt);
+            trackRevisit(toId, transition.getTo());
+        }
+
+        private void trackRevisit(int stateId, String state) {
+            boolean revisited;
+            synchronized (this) {
+                revisited = visitedStates.get(stateId);
+                visitedStates.set(stateId);
+            }
+            if (revisited && firstCycle == null) {
+                // Runs at most once per machine: the path from the first visit up to this revisit
+                List<String> path = null;
+                for (String visited : history.states()) {
+                    if (path == null && state.equals(visited)) {
+                        path = new ArrayList<>();
+                    }
+                    if (path != null) {
+                        path.add(visited);
+                    }
+                }
+                if (path != null && path.size() > 1) {
+                    firstCycle = List.copyOf(path.subList(0, path.size() - 1));
+                }
+            }
         }
 
         // Getters
         public String getMachineId() { return machineId; }
+        public String getMachineType() { return graph.getMachineType(); }
+        public boolean isSampled() { return sampled; }
         public String getCurrentState() { return currentState; }
-        public List<String> getStateHistory() { return stateHistory; }
+        // History getters are live views of the retained ring, read without copying
+        public Iterable<String> getStateHistory() { return history.states(); }
         public Map<String, Object> getViewModel() { return viewModel; }
-        public List<Transition> getPendingTransitions() { return pendingTransitions; }
+        public Iterable<Transition> getPendingTransitions() { return history.transitions(); }
+        public long getTotalTransitions() { return history.getTotalCount(); }
         public SpanContext getTraceContext() { return traceContext; }
+        public List<String> getFirstCycle() { return firstCycle; }
+        public long getStateEnteredAt() { return stateEnteredAt; }
+        public long getRegisteredAt() { return registeredAt; }
+        public boolean isCompleted() { return completed.get(); }
+    }
+
+    /**
+     * What is kept of a machine once its full record has been evicted.
+     */
+    public static class MachineSummary {
+        private final String machineId;
+        private final String machineType;
+        private final String finalState;
+        private final long startedAt;
+        private final long endedAt;
+        private final long transitionCount;
+
+        public MachineSummary(
+            String machineId,
+            String machineType,
+            String finalState,
+            long startedAt,
+            long endedAt,
+            long transitionCount
+        ) {
+            this.machineId = machineId;
+            this.machineType = machineType;
+            this.finalState = finalState;
+            this.startedAt = startedAt;
+            this.endedAt = endedAt;
+            this.transitionCount = transitionCount;
+        }
+
+        // Getters
+        public String getMachineId() { return machineId; }
+        public String getMachineType() { return machineType; }
+        public String getFinalState() { return finalState; }
+        public long getStartedAt() { return startedAt; }
+        public long getEndedAt() { return endedAt; }
+        public long getDurationMs() { return endedAt - startedAt; }
+        public long getTransitionCount() { return transitionCount; }
     }
 
     public static class Transition {
@@ -79,33 +245,122 @@ public class StateMachineAnalyzer {
     }
 
     public StateMachineAnalyzer(Tracer tracer, String backendUrl) {
+        this(tracer, backendUrl, DEFAULT_HISTORY_CAPACITY);
+    }
+
+    /**
+     * @param historyCapacity number of transitions retained per machine; older ones are overwritten
+     */
+    public StateMachineAnalyzer(Tracer tracer, String backendUrl, int historyCapacity) {
+        this(tracer, new AnalysisExporter(backendUrl), historyCapacity);
+    }
+
+    public StateMachineAnalyzer(Tracer tracer, AnalysisExporter exporter, int historyCapacity) {
+        this(tracer, TraceSampler.alwaysOn(), exporter, historyCapacity);
+    }
+
+    /**
+     * @param sampler decides per machine whether its registration and transitions get spans;
+     *                unsampled machines still feed every counter and aggregate
+     */
+    public StateMachineAnalyzer(
+        Tracer tracer,
+        TraceSampler sampler,
+        AnalysisExporter exporter,
+        int historyCapacity
+    ) {
         this.tracer = tracer;
-        this.backendUrl = backendUrl;
+        this.sampler = sampler;
+        this.exporter = exporter;
+        this.historyCapacity = historyCapacity;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "state-machine-analyzer-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::evictIdle, IDLE_SWEEP_SECONDS, IDLE_SWEEP_SECONDS, TimeUnit.SECONDS);
     }
 
+    /**
+     * Registers a machine under {@link #DEFAULT_MACHINE_TYPE}.
+     */
     public void registerMachine(String machineId, String initialState, Map<String, Object> viewModel) {
+        registerMachine(machineId, DEFAULT_MACHINE_TYPE, initialState, viewModel);
+    }
+
+    /**
+     * Registers a machine whose transitions are aggregated under {@code machineType}, so that
+     * all orders of one kind share a single transition graph.
+     */
+    public void registerMachine(
+        String machineId,
+        String machineType,
+        String initialState,
+        Map<String, Object> viewModel
+    ) {
+        registeredCount.increment();
+        if (!sampler.shouldSample(machineType)) {
+            // Fast path: no span is built at all
+            addMachine(machineId, machineType, false, initialState, viewModel, SpanContext.getInvalid());
+            journalRegister(machineId, machineType, initialState);
+            return;
+        }
+
+        sampledSpanCount.increment();
         Span span = tracer.spanBuilder("register_machine")
-            .setAttribute("machine.id", machineId)
-            .setAttribute("machine.initial_state", initialState)
+            .setAttribute(MACHINE_ID, machineId)
+            .setAttribute(MACHINE_INITIAL_STATE, initialState)
             .startSpan();
 
         try {
-            activeMachines.put(machineId, new StateMachineInfo(
-                machineId,
-                initialState,
-                new ArrayList<>(),
-                viewModel,
-                new ArrayList<>(),
-                span.getSpanContext()
-            ));
-
-            // Send to backend for static analysis
-            sendToBackend(machineId, initialState, null, null);
+            addMachine(machineId, machineType, true, initialState, viewModel, span.getSpanContext());
+            journalRegister(machineId, machineType, initialState);
         } finally {
             span.end();
         }
     }
 
+    private void addMachine(
+        String machineId,
+        String machineType,
+        boolean sampled,
+        String initialState,
+        Map<String, Object> viewModel,
+        SpanContext traceContext
+    ) {
+        putMachine(machineId, machineType, sampled, initialState, viewModel, traceContext, System.currentTimeMillis());
+
+        // Send to backend for static analysis
+        sendToBackend(machineId, initialState, null, null);
+    }
+
+    private StateMachineInfo putMachine(
+        String machineId,
+        String machineType,
+        boolean sampled,
+        String initialState,
+        Map<String, Object> viewModel,
+        SpanContext traceContext,
+        long registeredAt
+    ) {
+        TransitionGraph graph = transitionGraphs.computeIfAbsent(machineType, TransitionGraph::new);
+        StateMachineInfo info = new StateMachineInfo(
+            machineId,
+            graph,
+            sampled,
+            initialState,
+            new TransitionHistory(historyCapacity),
+            viewModel,
+            traceContext,
+            registeredAt
+        );
+        StateMachineInfo replaced = activeMachines.put(machineId, info);
+        if (replaced != null && replaced.completed.get()) {
+            releaseCompleted(Collections.singleton(replaced));
+        }
+        return info;
+    }
+
     public void recordTransition(
         String machineId,
         String fromState,
@@ -113,105 +368,476 @@ public class StateMachineAnalyzer {
         String operationName,
         Map<String, Object> variables
     ) {
+        transitionCount.increment();
+        StateMachineInfo info = activeMachines.get(machineId);
+        if (info == null) {
+            return;
+        }
+        if (!info.isSampled()) {
+            // Fast path: no span is built at all
+            addTransition(info, fromState, toState, operationName, variables, null);
+            return;
+        }
+
+        sampledSpanCount.increment();
         Span span = tracer.spanBuilder("record_transition")
-            .setAttribute("machine.id", machineId)
-            .setAttribute("transition.from", fromState)
-            .setAttribute("transition.to", toState)
-            .setAttribute("operation.name", operationName)
+            .setAttribute(MACHINE_ID, machineId)
+            .setAttribute(TRANSITION_FROM, fromState)
+            .setAttribute(TRANSITION_TO, toState)
+            .setAttribute(OPERATION_NAME, operationName)
             .startSpan();
 
         try {
-            StateMachineInfo info = activeMachines.get(machineId);
-            if (info != null) {
-                List<String> newHistory = new ArrayList<>(info.getStateHistory());
-                newHistory.add(toState);
-
-                List<Transition> newTransitions = new ArrayList<>(info.getPendingTransitions());
-                newTransitions.add(new Transition(
-                    fromState,
-                    toState,
-                    System.currentTimeMillis(),
-                    operationName,
-                    variables
-                ));
-
-                activeMachines.put(machineId, new StateMachineInfo(
-                    machineId,
-                    toState,
-                    newHistory,
-                    info.getViewModel(),
-                    newTransitions,
-                    span.getSpanContext()
-                ));
-
-                // Send to backend for static analysis
-                sendToBackend(machineId, toState, fromState, operationName);
-            }
+            addTransition(info, fromState, toState, operationName, variables, span.getSpanContext());
         } finally {
             span.end();
         }
     }
 
+    private void addTransition(
+        StateMachineInfo info,
+        String fromState,
+        String toState,
+        String operationName,
+        Map<String, Object> variables,
+        SpanContext traceContext
+    ) {
+        long timestamp = System.currentTimeMillis();
+        info.recordTransition(new Transition(
+            fromState,
+            toState,
+            timestamp,
+            operationName,
+            variables
+        ), traceContext);
+
+        TransitionJournal journal = this.journal;
+        if (journal != null) {
+            journal.appendTransition(info.getMachineId(), fromState, toState, operationName, timestamp);
+        }
+
+        // Send to backend for static analysis
+        sendToBackend(info.getMachineId(), toState, fromState, operationName);
+
+        completeIfTerminal(info, toState);
+    }
+
+    private void completeIfTerminal(StateMachineInfo info, String state) {
+        EvictionPolicy policy = evictionPolicy;
+        if (!policy.isTerminal(state) || !info.completed.compareAndSet(false, true)) {
+            return;
+        }
+        long estimate = info.estimateRetainedBytes();
+        info.completedBytes.set(estimate);
+        completedMachines.add(info);
+        long retained = completedBytes.addAndGet(estimate);
+        while (retained > policy.getCompletedBudgetBytes()) {
+            StateMachineInfo oldest = completedMachines.poll();
+            if (oldest == null) {
+                break;
+            }
+            retained = completedBytes.addAndGet(-oldest.completedBytes.getAndSet(0));
+            evict(oldest);
+        }
+    }
+
+    /**
+     * Summarizes and evicts every machine that has not transitioned within the idle TTL.
+     * Runs periodically on the sweeper thread.
+     */
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - evictionPolicy.getIdleTtl().toMillis();
+        Set<StateMachineInfo> evictedCompleted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (StateMachineInfo info : activeMachines.values()) {
+            if (info.getStateEnteredAt() < cutoff && evict(info) && info.completed.get()) {
+                evictedCompleted.add(info);
+            }
+        }
+        releaseCompleted(evictedCompleted);
+    }
+
+    // Drops machines evicted by other means from the completed budget, in one pass over the queue
+    private void releaseCompleted(Set<StateMachineInfo> released) {
+        if (released.isEmpty()) {
+            return;
+        }
+        completedMachines.removeIf(info -> {
+            if (!released.contains(info)) {
+                return false;
+            }
+            completedBytes.addAndGet(-info.completedBytes.getAndSet(0));
+            return true;
+        });
+    }
+
+    private boolean evict(StateMachineInfo info) {
+        if (!activeMachines.remove(info.getMachineId(), info)) {
+            return false;
+        }
+        evictedCount.increment();
+        MachineSummary summary = info.summarize();
+        summaries.put(summary.getMachineId(), summary);
+        summaryOrder.add(summary);
+        int maxSummaries = evictionPolicy.getMaxSummaries();
+        while (summaries.size() > maxSummaries) {
+            MachineSummary oldest = summaryOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            summaries.remove(oldest.getMachineId(), oldest);
+        }
+        return true;
+    }
+
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public MachineSummary getSummary(String machineId) {
+        return summaries.get(machineId);
+    }
+
+    public Collection<MachineSummary> getSummaries() {
+        return Collections.unmodifiableCollection(summaries.values());
+    }
+
+    public long getEvictedCount() { return evictedCount.sum(); }
+
+    private void journalRegister(String machineId, String machineType, String initialState) {
+        TransitionJournal journal = this.journal;
+        if (journal != null) {
+            journal.appendRegister(machineId, machineType, initialState, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Persists every subsequent registration and transition to {@code journal}. Each new journal
+     * segment starts with the machines live at that point, so retention never loses a live machine.
+     * The analyzer closes the journal when it is closed.
+     */
+    public void setJournal(TransitionJournal journal) {
+        journal.setRollHandler(this::journalActiveMachines);
+        this.journal = journal;
+    }
+
+    private void journalActiveMachines(TransitionJournal journal) {
+        for (StateMachineInfo info : activeMachines.values()) {
+            journal.appendActive(info.getMachineId(), info.getMachineType(), info.getCurrentState(), info.getRegisteredAt());
+        }
+    }
+
+    public TransitionJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Rebuilds machines, histories and aggregates from a journal, typically right after a
+     * restart and before {@link #setJournal} is called. Replayed records are not re-journaled,
+     * exported or traced, and view models are not journaled, so replayed machines have none.
+     */
+    public void replay(TransitionJournal journal) throws IOException {
+        journal.replay(new TransitionJournal.Listener() {
+            @Override
+            public void onRegister(String machineId, String machineType, String initialState, long timestamp) {
+                putMachine(machineId, machineType, false, initialState, null, SpanContext.getInvalid(), timestamp);
+            }
+
+            @Override
+            public void onActive(String machineId, String machineType, String currentState, long registeredAt) {
+                // Only fills in machines whose register record is no longer retained
+                if (!activeMachines.containsKey(machineId)) {
+                    putMachine(machineId, machineType, false, currentState, null, SpanContext.getInvalid(), registeredAt);
+                }
+            }
+
+            @Override
+            public void onTransition(
+                String machineId,
+                String fromState,
+                String toState,
+                String operationName,
+                long timestamp
+            ) {
+                StateMachineInfo info = activeMachines.get(machineId);
+                if (info != null) {
+                    info.recordTransition(new Transition(fromState, toState, timestamp, operationName, null), null);
+                    completeIfTerminal(info, toState);
+                }
+            }
+        });
+    }
+
     private void sendToBackend(
         String machineId,
         String currentState,
         String fromState,
         String operationName
     ) {
-        // Implementation for sending data to backend for static analysis
-        // This would use the backendUrl to send the state information
+        // Only enqueues; batching and delivery happen on the exporter's worker thread
+        exporter.enqueue(new AnalysisExporter.ExportRecord(
+            machineId,
+            currentState,
+            fromState,
+            operationName,
+            System.currentTimeMillis()
+        ));
     }
 
+    /**
+     * First cycle each machine has walked through, keyed by machine id. Cycles are detected as
+     * transitions are recorded, so this does not rescan history.
+     */
     public Map<String, List<String>> detectCycles() {
         Map<String, List<String>> cycles = new HashMap<>();
         
         for (StateMachineInfo info : activeMachines.values()) {
-            List<String> history = info.getStateHistory();
-            Set<String> visited = new HashSet<>();
-            List<String> currentPath = new ArrayList<>();
-            
-            for (String state : history) {
-                if (visited.contains(state)) {
-                    // Found a cycle
-                    int startIndex = currentPath.indexOf(state);
-                    List<String> cycle = currentPath.subList(startIndex, currentPath.size());
-                    cycles.put(info.getMachineId(), cycle);
-                    break;
-                }
-                visited.add(state);
-                currentPath.add(state);
+            List<String> cycle = info.getFirstCycle();
+            if (cycle != null) {
+                cycles.put(info.getMachineId(), cycle);
             }
         }
         
         return cycles;
     }
 
+    public List<String> detectCycle(String machineId) {
+        StateMachineInfo info = activeMachines.get(machineId);
+        return info != null ? info.getFirstCycle() : null;
+    }
+
+    /**
+     * Statically analyses a machine type's config and keeps the result for runtime event checks.
+     * Unchanged configs hit the analyzer's cache, so this is cheap to call on every load.
+     */
+    public ConfigAnalysis loadConfig(String machineType, Map<String, Object> config) {
+        ConfigAnalysis analysis = configAnalyzer.analyze(config);
+        configAnalyses.put(machineType, analysis);
+        if (!analysis.isValid()) {
+            logger.warn("Config for {} has problems: {}", machineType, analysis.getProblems());
+        }
+        return analysis;
+    }
+
+    public ConfigAnalysis getConfigAnalysis(String machineType) {
+        return configAnalyses.get(machineType);
+    }
+
+    public ConfigAnalyzer getConfigAnalyzer() {
+        return configAnalyzer;
+    }
+
+    /**
+     * Whether the machine's current state can handle the event according to its loaded config.
+     * Machine types without a loaded config, and states their config does not declare, are assumed
+     * to accept everything.
+     */
+    public boolean isEventPossible(String machineId, String event) {
+        StateMachineInfo info = activeMachines.get(machineId);
+        if (info == null) {
+            return false;
+        }
+        ConfigAnalysis analysis = configAnalyses.get(info.graph.getMachineType());
+        return analysis == null || analysis.accepts(info.getCurrentState(), event);
+    }
+
+    public TransitionGraph getTransitionGraph(String machineType) {
+        return transitionGraphs.get(machineType);
+    }
+
+    /**
+     * Cyclic strongly connected components of the observed transition graph for one machine type.
+     */
+    public List<List<String>> getStronglyConnectedComponents(String machineType) {
+        TransitionGraph graph = transitionGraphs.get(machineType);
+        return graph != null ? graph.stronglyConnectedComponents() : List.of();
+    }
+
+    /**
+     * Cyclic strongly connected components for every machine type that has any.
+     */
+    public Map<String, List<List<String>>> getStronglyConnectedComponents() {
+        Map<String, List<List<String>>> components = new HashMap<>();
+        for (TransitionGraph graph : transitionGraphs.values()) {
+            List<List<String>> sccs = graph.stronglyConnectedComponents();
+            if (!sccs.isEmpty()) {
+                components.put(graph.getMachineType(), sccs);
+            }
+        }
+        return components;
+    }
+
+    /**
+     * Counts for every observed {@code (machineType, from, to)} transition across all machines.
+     * Reads the per-edge counters directly, so writers are never blocked.
+     */
+    public List<TransitionGraph.TransitionCount> snapshotTransitionCounts() {
+        List<TransitionGraph.TransitionCount> counts = new ArrayList<>();
+        for (TransitionGraph graph : transitionGraphs.values()) {
+            counts.addAll(graph.snapshotCounts());
+        }
+        return counts;
+    }
+
+    /**
+     * The {@code limit} most frequently taken transitions across all machine types.
+     */
+    public List<TransitionGraph.TransitionCount> hotTransitions(int limit) {
+        List<TransitionGraph.TransitionCount> counts = snapshotTransitionCounts();
+        counts.sort(Comparator.comparingLong(TransitionGraph.TransitionCount::getCount).reversed());
+        return counts.size() > limit ? new ArrayList<>(counts.subList(0, limit)) : counts;
+    }
+
+    /**
+     * Writes the transition-frequency matrix as tab-separated
+     * {@code machineType, from, to, count} lines.
+     */
+    public void exportTransitionCounts(Appendable out) throws IOException {
+        for (TransitionGraph graph : transitionGraphs.values()) {
+            for (TransitionGraph.TransitionCount count : graph.snapshotCounts()) {
+                out.append(count.getMachineType()).append('\t')
+                    .append(count.getFrom()).append('\t')
+                    .append(count.getTo()).append('\t')
+                    .append(Long.toString(count.getCount())).append('\n');
+            }
+        }
+    }
+
+    public void resetTransitionCounts() {
+        for (TransitionGraph graph : transitionGraphs.values()) {
+            graph.resetCounts();
+        }
+    }
+
+    /**
+     * Dwell-time distribution for one state of one machine type, or an empty snapshot if the
+     * state has never been left.
+     */
+    public DwellTimeHistogram.Snapshot getDwellTimes(String machineType, String state) {
+        TransitionGraph graph = transitionGraphs.get(machineType);
+        DwellTimeHistogram histogram = graph != null ? graph.dwellTime(state) : null;
+        return histogram != null ? histogram.snapshot() : DwellTimeHistogram.Snapshot.empty();
+    }
+
+    /**
+     * Dwell-time snapshots for every state, keyed by machine type and then state. With
+     * {@code reset} set, each histogram starts a new interval after being read.
+     */
+    public Map<String, Map<String, DwellTimeHistogram.Snapshot>> snapshotDwellTimes(boolean reset) {
+        Map<String, Map<String, DwellTimeHistogram.Snapshot>> snapshots = new HashMap<>();
+        for (TransitionGraph graph : transitionGraphs.values()) {
+            Map<String, DwellTimeHistogram.Snapshot> states = new HashMap<>();
+            for (int id = 0; id < graph.getStateCount(); id++) {
+                DwellTimeHistogram histogram = graph.dwellTime(id);
+                states.put(graph.stateName(id), reset ? histogram.snapshotAndReset() : histogram.snapshot());
+            }
+            snapshots.put(graph.getMachineType(), states);
+        }
+        return snapshots;
+    }
+
     public String generateStateTree() {
         StringBuilder tree = new StringBuilder();
-        tree.append("Active State Machines:\n");
-        
-        for (StateMachineInfo info : activeMachines.values()) {
-            tree.append(String.format("\nMachine: %s\n", info.getMachineId()));
-            tree.append(String.format("Current State: %s\n", info.getCurrentState()));
-            tree.append("State History:\n");
-            
-            for (String state : info.getStateHistory()) {
-                tree.append(String.format("  -> %s\n", state));
-            }
-            
-            tree.append("Pending Transitions:\n");
-            for (Transition transition : info.getPendingTransitions()) {
-                tree.append(String.format("  %s -> %s (%s)\n",
-                    transition.getFrom(),
-                    transition.getTo(),
-                    transition.getOperationName()
-                ));
-            }
+        try {
+            writeStateTree(tree, null, null, null, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            // StringBuilder never throws
+            throw new IllegalStateException(e);
         }
-        
         return tree.toString();
     }
 
+    /**
+     * Streams one page of the state tree to {@code out}, encoded as UTF-8. The stream is flushed
+     * but not closed.
+     *
+     * @see #writeStateTree(Appendable, String, String, String, int)
+     */
+    public String writeStateTree(
+        OutputStream out,
+        String machineIdPrefix,
+        String state,
+        String cursor,
+        int limit
+    ) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        String nextCursor = writeStateTree(writer, machineIdPrefix, state, cursor, limit);
+        writer.flush();
+        return nextCursor;
+    }
+
+    /**
+     * Streams one page of the state tree to {@code out} without building it in memory.
+     * Machines are visited in machine-id order.
+     *
+     * @param machineIdPrefix only include machines whose id starts with this, or null for all
+     * @param state           only include machines currently in this state, or null for all
+     * @param cursor          machine id the previous page ended at, or null to start from the beginning
+     * @param limit           maximum number of machines to write, must be positive
+     * @return cursor for the next page, or null when there are no more machines
+     */
+    public String writeStateTree(
+        Appendable out,
+        String machineIdPrefix,
+        String state,
+        String cursor,
+        int limit
+    ) throws IOException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("State tree page limit must be positive: " + limit);
+        }
+        if (cursor == null) {
+            out.append("Active State Machines:\n");
+        }
+
+        ConcurrentNavigableMap<String, StateMachineInfo> machines = activeMachines;
+        if (cursor != null) {
+            machines = machines.tailMap(cursor, false);
+        }
+        if (machineIdPrefix != null && (cursor == null || cursor.compareTo(machineIdPrefix) < 0)) {
+            machines = machines.tailMap(machineIdPrefix, true);
+        }
+
+        int written = 0;
+        String lastWritten = null;
+        for (StateMachineInfo info : machines.values()) {
+            if (machineIdPrefix != null && !info.getMachineId().startsWith(machineIdPrefix)) {
+                // Keys are sorted, so nothing after the first mismatch can match the prefix
+                break;
+            }
+            if (state != null && !state.equals(info.getCurrentState())) {
+                continue;
+            }
+            if (written == limit) {
+                return lastWritten;
+            }
+            writeMachine(out, info);
+            lastWritten = info.getMachineId();
+            written++;
+        }
+        return null;
+    }
+
+    private void writeMachine(Appendable out, StateMachineInfo info) throws IOException {
+        out.append("\nMachine: ").append(info.getMachineId()).append('\n');
+        out.append("Current State: ").append(info.getCurrentState()).append('\n');
+        out.append("State History:\n");
+
+        for (String state : info.getStateHistory()) {
+            out.append("  -> ").append(state).append('\n');
+        }
+
+        out.append("Pending Transitions:\n");
+        for (Transition transition : info.getPendingTransitions()) {
+            out.append("  ").append(transition.getFrom())
+                .append(" -> ").append(transition.getTo())
+                .append(" (").append(transition.getOperationName()).append(")\n");
+        }
+    }
+
     public String generateTraceUrl(String machineId) {
         StateMachineInfo info = activeMachines.get(machineId);
         if (info == null) return null;
@@ -223,4 +849,26 @@ public class StateMachineAnalyzer {
             info.getTraceContext().getTraceId()
         );
     }
-} 
\ No newline at end of file
+
+    public TraceSampler getSampler() {
+        return sampler;
+    }
+
+    public long getRegisteredCount() { return registeredCount.sum(); }
+    public long getTransitionCount() { return transitionCount.sum(); }
+    public long getSampledSpanCount() { return sampledSpanCount.sum(); }
+
+    public AnalysisExporter getExporter() {
+        return exporter;
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        exporter.close();
+        TransitionJournal journal = this.journal;
+        if (journal != null) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Head-based sampler for analyzer spans. The decision is made once when a machine registers and
+ * applies to every transition it records, so a sampled machine produces a complete trace.
+ * Rates are fractions between 0 and 1, configurable per machine type with a default fallback.
+ */
+public class TraceSampler {
+    private final Map<String, Double> rates = new ConcurrentHashMap<>();
+    private volatile double defaultRate;
+
+    public TraceSampler(double defaultRate) {
+        this.defaultRate = clamp(defaultRate);
+    }
+
+    public static TraceSampler alwaysOn() {
+        return new TraceSampler(1.0);
+    }
+
+    public void setDefaultRate(double rate) {
+        this.defaultRate = clamp(rate);
+    }
+
+    public void setRate(String machineType, double rate) {
+        rates.put(machineType, clamp(rate));
+    }
+
+    public void clearRate(String machineType) {
+        rates.remove(machineType);
+    }
+
+    public double getRate(String machineType) {
+        Double rate = rates.get(machineType);
+        return rate != null ? rate : defaultRate;
+    }
+
+    public boolean shouldSample(String machineType) {
+        double rate = getRate(machineType);
+        if (rate >= 1.0) {
+            return true;
+        }
+        if (rate <= 0.0) {
+            return false;
+        }
+        return ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private static double clamp(double rate) {
+        return Math.max(0.0, Math.min(1.0, rate));
+    }
+}
@@ -0,0 +1,325 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Observed transition graph for one machine type, maintained incrementally as transitions are
+ * recorded. State names are interned to dense integer ids and every edge carries a striped
+ * {@link LongAdder} counting how often it was taken. Each state also has a
+ * {@link DwellTimeHistogram} of how long machines stayed in it.
+ *
+ * Repeated edges are found by scanning the source state's published edge table and bumping its
+ * counter, without locking or boxing. Only a new state or edge takes the graph lock; a new edge is
+ * checked for closing a cycle by searching back from its target and then published copy-on-write.
+ * Strongly connected components are computed on demand with Tarjan's algorithm, in time
+ * proportional to the graph rather than to how many transitions produced it.
+ */
+public class TransitionGraph {
+    private static final Edges NO_EDGES = new Edges(new int[0], new LongAdder[0]);
+
+    private final String machineType;
+    private final Map<String, Integer> stateIds = new ConcurrentHashMap<>();
+    // Published copy-on-write under the lock; readers never block
+    private volatile String[] stateNames = new String[0];
+    private volatile Edges[] outgoing = new Edges[0];
+    private volatile DwellTimeHistogram[] dwellTimes = new DwellTimeHistogram[0];
+    private volatile int edgeCount;
+    // Guarded by this
+    private final List<List<String>> observedCycles = new ArrayList<>();
+
+    private static class Edges {
+        private final int[] targets;
+        private final LongAdder[] counts;
+
+        Edges(int[] targets, LongAdder[] counts) {
+            this.targets = targets;
+            this.counts = counts;
+        }
+
+        LongAdder find(int to) {
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == to) {
+                    return counts[i];
+                }
+            }
+            return null;
+        }
+
+        Edges with(int to, LongAdder count) {
+            int[] grownTargets = Arrays.copyOf(targets, targets.length + 1);
+            LongAdder[] grownCounts = Arrays.copyOf(counts, counts.length + 1);
+            grownTargets[targets.length] = to;
+            grownCounts[counts.length] = count;
+            return new Edges(grownTargets, grownCounts);
+        }
+    }
+
+    public static class TransitionCount {
+        private final String machineType;
+        private final String from;
+        private final String to;
+        private final long count;
+
+        public TransitionCount(String machineType, String from, String to, long count) {
+            this.machineType = machineType;
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+
+        public String getMachineType() { return machineType; }
+        public String getFrom() { return from; }
+        public String getTo() { return to; }
+        public long getCount() { return count; }
+    }
+
+    public TransitionGraph(String machineType) {
+        this.machineType = machineType;
+    }
+
+    public String getMachineType() { return machineType; }
+
+    public int stateId(String state) {
+        Integer id = stateIds.get(state);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = stateIds.get(state);
+            if (id == null) {
+                String[] names = stateNames;
+                id = names.length;
+                String[] grownNames = Arrays.copyOf(names, id + 1);
+                grownNames[id] = state;
+                Edges[] grownOutgoing = Arrays.copyOf(outgoing, id + 1);
+                grownOutgoing[id] = NO_EDGES;
+                DwellTimeHistogram[] grownDwellTimes = Arrays.copyOf(dwellTimes, id + 1);
+                grownDwellTimes[id] = new DwellTimeHistogram();
+                dwellTimes = grownDwellTimes;
+                outgoing = grownOutgoing;
+                stateNames = grownNames;
+                stateIds.put(state, id);
+            }
+            return id;
+        }
+    }
+
+    public String stateName(int id) {
+        return stateNames[id];
+    }
+
+    /**
+     * Histogram of time spent in the given state before leaving it.
+     */
+    public DwellTimeHistogram dwellTime(int stateId) {
+        return dwellTimes[stateId];
+    }
+
+    public DwellTimeHistogram dwellTime(String state) {
+        Integer id = stateIds.get(state);
+        return id != null ? dwellTimes[id] : null;
+    }
+
+    public int getStateCount() {
+        return stateNames.length;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Counts one traversal of an edge. Returns true when the edge is new and closes a cycle.
+     */
+    public boolean recordEdge(int from, int to) {
+        Edges[] out = outgoing;
+        if (from < out.length) {
+            LongAdder count = out[from].find(to);
+            if (count != null) {
+                count.increment();
+                return false;
+            }
+        }
+        synchronized (this) {
+            LongAdder count = outgoing[from].find(to);
+            if (count != null) {
+                count.increment();
+                return false;
+            }
+            List<String> cycle = findPath(to, from);
+            count = new LongAdder();
+            count.increment();
+            Edges[] grownOutgoing = outgoing.clone();
+            grownOutgoing[from] = grownOutgoing[from].with(to, count);
+            outgoing = grownOutgoing;
+            edgeCount++;
+            if (cycle != null) {
+                observedCycles.add(Collections.unmodifiableList(cycle));
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public boolean hasEdge(int from, int to) {
+        Edges[] out = outgoing;
+        return from < out.length && out[from].find(to) != null;
+    }
+
+    public long getCount(String from, String to) {
+        Integer fromId = stateIds.get(from);
+        Integer toId = stateIds.get(to);
+        if (fromId == null || toId == null) {
+            return 0;
+        }
+        Edges[] out = outgoing;
+        LongAdder count = fromId < out.length ? out[fromId].find(toId) : null;
+        return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * Point-in-time counts for every observed edge. Counters are read while writers keep
+     * incrementing, so totals across edges are not an atomic cut.
+     */
+    public List<TransitionCount> snapshotCounts() {
+        String[] names = stateNames;
+        Edges[] out = outgoing;
+        List<TransitionCount> counts = new ArrayList<>();
+        for (int from = 0; from < Math.min(names.length, out.length); from++) {
+            Edges edges = out[from];
+            for (int i = 0; i < edges.targets.length; i++) {
+                counts.add(new TransitionCount(
+                    machineType, names[from], names[edges.targets[i]], edges.counts[i].sum()));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Clears every edge counter while keeping the graph itself.
+     */
+    public void resetCounts() {
+        for (Edges edges : outgoing) {
+            for (LongAdder count : edges.counts) {
+                count.reset();
+            }
+        }
+    }
+
+    /**
+     * Cycles closed by new edges, in the order they were first observed. Each is listed
+     * starting from the target of the closing edge.
+     */
+    public synchronized List<List<String>> getObservedCycles() {
+        return new ArrayList<>(observedCycles);
+    }
+
+    /**
+     * Strongly connected components that contain a cycle, i.e. with more than one state or a
+     * self-loop.
+     */
+    public List<List<String>> stronglyConnectedComponents() {
+        String[] names = stateNames;
+        Edges[] out = outgoing;
+        int n = Math.min(names.length, out.length);
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        Deque<Integer> stack = new ArrayDeque<>();
+        List<List<String>> components = new ArrayList<>();
+        int counter = 0;
+
+        // Iterative Tarjan so deep graphs cannot overflow the thread stack
+        int[] edgeCursor = new int[n];
+        Deque<Integer> callStack = new ArrayDeque<>();
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            callStack.push(root);
+            while (!callStack.isEmpty()) {
+                int v = callStack.peek();
+                if (index[v] == -1) {
+                    index[v] = lowLink[v] = counter++;
+                    stack.push(v);
+                    onStack[v] = true;
+                }
+                int[] targets = out[v].targets;
+                if (edgeCursor[v] < targets.length) {
+                    int w = targets[edgeCursor[v]++];
+                    if (w >= n) {
+                        continue;
+                    }
+                    if (index[w] == -1) {
+                        callStack.push(w);
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                    continue;
+                }
+                callStack.pop();
+                if (!callStack.isEmpty()) {
+                    int parent = callStack.peek();
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+                if (lowLink[v] == index[v]) {
+                    List<String> component = new ArrayList<>();
+                    int w;
+                    do {
+                        w = stack.pop();
+                        onStack[w] = false;
+                        component.add(names[w]);
+                    } while (w != v);
+                    if (component.size() > 1 || out[v].find(v) != null) {
+                        Collections.reverse(component);
+                        components.add(component);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    // Breadth-first search over published edges; caller holds the lock
+    private List<String> findPath(int from, int to) {
+        String[] names = stateNames;
+        if (from == to) {
+            return new ArrayList<>(List.of(names[from]));
+        }
+        Edges[] out = outgoing;
+        int[] previous = new int[names.length];
+        Arrays.fill(previous, -1);
+        previous[from] = from;
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            for (int w : out[v].targets) {
+                if (previous[w] != -1) {
+                    continue;
+                }
+                previous[w] = v;
+                if (w == to) {
+                    List<String> path = new ArrayList<>();
+                    for (int step = to; step != from; step = previous[step]) {
+                        path.add(names[step]);
+                    }
+                    path.add(names[from]);
+                    Collections.reverse(path);
+                    return path;
+                }
+                queue.add(w);
+            }
+        }
+        return null;
+    }
+}
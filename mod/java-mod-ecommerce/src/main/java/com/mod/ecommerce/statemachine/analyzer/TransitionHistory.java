@@ -0,0 +1,143 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Bounded, append-only transition history for a single machine.
+ *
+ * Appends claim a sequence number with one atomic increment and write into a fixed ring, so they
+ * never lock or copy. Once the ring is full the oldest entries are overwritten. Readers iterate
+ * the ring in place, over the range published when iteration starts: each entry's sequence number
+ * is checked before and after it is read, and entries a writer overwrites meanwhile are skipped.
+ * An iteration may therefore start later than the oldest entry it saw, but never fails and never
+ * copies the history.
+ */
+public class TransitionHistory {
+    private final int capacity;
+    private final AtomicReferenceArray<StateMachineAnalyzer.Transition> slots;
+    // Sequence number stored in each slot; readers check it before and after reading the slot
+    private final AtomicLongArray slotSequences;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    public TransitionHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.slotSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slotSequences.set(i, -1);
+        }
+    }
+
+    public void append(StateMachineAnalyzer.Transition transition) {
+        long sequence = nextSequence.getAndIncrement();
+        int index = (int) (sequence % capacity);
+        // Invalidate first so a reader holding the previous sequence cannot accept the new entry
+        slotSequences.set(index, -1);
+        slots.set(index, transition);
+        slotSequences.set(index, sequence);
+    }
+
+    public int getCapacity() { return capacity; }
+
+    /**
+     * Total number of transitions ever appended, including those no longer retained.
+     */
+    public long getTotalCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Live view of the retained transitions, oldest first. Each iteration reads the ring directly.
+     */
+    public Iterable<StateMachineAnalyzer.Transition> transitions() {
+        return () -> new RingIterator<>(Function.identity());
+    }
+
+    /**
+     * Live view of the states entered by the retained transitions, oldest first.
+     */
+    public Iterable<String> states() {
+        return () -> new RingIterator<>(StateMachineAnalyzer.Transition::getTo);
+    }
+
+    /**
+     * Returns the most recently published transition, or null if none has been recorded.
+     */
+    public StateMachineAnalyzer.Transition last() {
+        long end = nextSequence.get();
+        for (long sequence = end - 1; sequence >= Math.max(0, end - capacity); sequence--) {
+            int index = (int) (sequence % capacity);
+            if (slotSequences.get(index) == sequence) {
+                return slots.get(index);
+            }
+        }
+        return null;
+    }
+
+    private long publishedEnd() {
+        long end = nextSequence.get();
+        // Stop at the first slot a concurrent writer has claimed but not yet published
+        long start = Math.max(0, end - capacity);
+        for (long sequence = start; sequence < end; sequence++) {
+            if (slotSequences.get((int) (sequence % capacity)) < sequence) {
+                return sequence;
+            }
+        }
+        return end;
+    }
+
+    private class RingIterator<E> implements Iterator<E> {
+        private final Function<StateMachineAnalyzer.Transition, E> mapper;
+        private final long end = publishedEnd();
+        private long sequence = Math.max(0, end - capacity);
+        private StateMachineAnalyzer.Transition next;
+
+        RingIterator(Function<StateMachineAnalyzer.Transition, E> mapper) {
+            this.mapper = mapper;
+            advance();
+        }
+
+        // Entries lapped since iteration started are skipped; the rest stay in sequence order
+        private void advance() {
+            next = null;
+            while (next == null && sequence < end) {
+                next = read(sequence++);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            StateMachineAnalyzer.Transition transition = next;
+            advance();
+            return mapper.apply(transition);
+        }
+    }
+
+    // The transition published under this sequence, or null once it has been overwritten
+    private StateMachineAnalyzer.Transition read(long sequence) {
+        int index = (int) (sequence % capacity);
+        if (slotSequences.get(index) == sequence) {
+            StateMachineAnalyzer.Transition transition = slots.get(index);
+            if (slotSequences.get(index) == sequence) {
+                return transition;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,392 @@
+package com.mod.ecommerce.statemachine.analyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of analyzer events, stored in fixed-size memory-mapped segment files.
+ *
+ * Each record is {@code [int length][byte type][long timestamp][strings...]}. The length is
+ * written last, and unused segment space is zero, so a reader stops cleanly at the first
+ * unfinished record after a crash. A reopened journal starts a new segment rather than appending
+ * after that point. Appenders reserve their bytes in the current segment with a
+ * compare-and-set and write without locking; only starting a new segment takes the journal lock.
+ *
+ * A full segment is sealed and a new one is started. The roll handler then writes an
+ * {@code ACTIVE} record for every live machine on a background thread, so a machine whose register
+ * record was in a deleted segment is still known on replay, and the appender that filled the
+ * segment does not wait for it. Rolls during a re-emit are coalesced into one more pass. Once the
+ * pass is done, sealed segments before it are deleted oldest first while the journal exceeds its
+ * size or age limit. A segment that cannot be created drops the record and is
+ * counted in {@link #getIoFailureCount}; appends never throw.
+ */
+public class TransitionJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(TransitionJournal.class);
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final byte REGISTER = 1;
+    private static final byte TRANSITION = 2;
+    private static final byte ACTIVE = 3;
+    private static final int HEADER_BYTES = Integer.BYTES + Byte.BYTES + Long.BYTES;
+    // String lengths are unsigned shorts; the all-ones value marks null
+    private static final int NULL_STRING = 0xFFFF;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxTotalBytes;
+    private final Duration maxAge;
+
+    private final LongAdder ioFailures = new LongAdder();
+    private final LongAdder droppedRecords = new LongAdder();
+
+    // Replaced under this; appenders read it without locking
+    private volatile Segment current;
+    private volatile Consumer<TransitionJournal> rollHandler;
+
+    // Forces sealed segments, re-emits active machines and applies retention after each roll
+    private final ExecutorService reemitter;
+    private volatile Thread reemitThread;
+    private final AtomicBoolean reemitPending = new AtomicBoolean();
+    private boolean warnedOversizedReemit;
+
+    private static class Segment {
+        private final MappedByteBuffer buffer;
+        private final long index;
+        private final AtomicInteger next;
+
+        Segment(MappedByteBuffer buffer, long index, int position) {
+            this.buffer = buffer;
+            this.index = index;
+            this.next = new AtomicInteger(position);
+        }
+    }
+
+    /**
+     * Receives journal records in the order they were appended.
+     */
+    public interface Listener {
+        void onRegister(String machineId, String machineType, String initialState, long timestamp);
+        void onTransition(String machineId, String fromState, String toState, String operationName, long timestamp);
+
+        /**
+         * A machine that was live when a new segment started, in the state it was in then.
+         */
+        default void onActive(String machineId, String machineType, String currentState, long registeredAt) {
+        }
+    }
+
+    /**
+     * @param directory     directory holding the segment files; created if missing
+     * @param segmentBytes  size of each memory-mapped segment
+     * @param maxTotalBytes sealed segments are deleted once the journal grows past this
+     * @param maxAge        sealed segments last modified longer ago than this are deleted
+     */
+    public TransitionJournal(Path directory, int segmentBytes, long maxTotalBytes, Duration maxAge) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAge = maxAge;
+        Files.createDirectories(directory);
+
+        // Appends always go to a fresh segment. Resuming in the last segment would leave any
+        // records past a crashed appender's gap to be read back after the new ones.
+        List<Path> segments = listSegments(directory);
+        long index = segments.isEmpty() ? 0 : segmentIndexOf(segments.get(segments.size() - 1)) + 1;
+        current = openSegment(index);
+
+        this.reemitter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transition-journal-reemit");
+            thread.setDaemon(true);
+            reemitThread = thread;
+            return thread;
+        });
+    }
+
+    /**
+     * Called on the journal's background thread after a new segment is started, to write
+     * {@link #appendActive} records for the machines that are live at that point.
+     */
+    public void setRollHandler(Consumer<TransitionJournal> rollHandler) {
+        this.rollHandler = rollHandler;
+    }
+
+    public void appendRegister(String machineId, String machineType, String initialState, long timestamp) {
+        append(REGISTER, timestamp, machineId, machineType, initialState, null);
+    }
+
+    public void appendTransition(
+        String machineId,
+        String fromState,
+        String toState,
+        String operationName,
+        long timestamp
+    ) {
+        append(TRANSITION, timestamp, machineId, fromState, toState, operationName);
+    }
+
+    public void appendActive(String machineId, String machineType, String currentState, long registeredAt) {
+        append(ACTIVE, registeredAt, machineId, machineType, currentState, null);
+    }
+
+    private void append(byte type, long timestamp, String a, String b, String c, String d) {
+        byte[] first = encode(a);
+        byte[] second = encode(b);
+        byte[] third = encode(c);
+        byte[] fourth = encode(d);
+        int length = HEADER_BYTES + sizeOf(first) + sizeOf(second) + sizeOf(third) + sizeOf(fourth);
+        if (length > segmentBytes - Integer.BYTES || tooLong(first) || tooLong(second)
+                || tooLong(third) || tooLong(fourth)) {
+            logger.warn("Dropping journal record of {} bytes that does not fit the record format", length);
+            droppedRecords.increment();
+            return;
+        }
+
+        Segment segment = current;
+        int start;
+        while ((start = reserve(segment, length)) < 0) {
+            segment = roll(segment);
+            if (segment == null) {
+                droppedRecords.increment();
+                return;
+            }
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int position = start + Integer.BYTES;
+        buffer.put(position, type);
+        buffer.putLong(position + Byte.BYTES, timestamp);
+        position += Byte.BYTES + Long.BYTES;
+        position = putString(buffer, position, first);
+        position = putString(buffer, position, second);
+        position = putString(buffer, position, third);
+        putString(buffer, position, fourth);
+        // Publishing the length last makes the record visible only once it is complete
+        buffer.putInt(start, length);
+    }
+
+    // Claims length bytes in the segment, or returns -1 if they do not fit
+    private int reserve(Segment segment, int length) {
+        while (true) {
+            int start = segment.next.get();
+            // Leave room for the zero length that terminates the segment
+            if (start + length + Integer.BYTES > segmentBytes) {
+                return -1;
+            }
+            if (segment.next.compareAndSet(start, start + length)) {
+                return start;
+            }
+        }
+    }
+
+    /**
+     * Forces written records to disk. Records already survive a process crash without this,
+     * since they live in the page cache; it only matters for machine crashes.
+     */
+    public void flush() {
+        current.buffer.force();
+    }
+
+    /**
+     * Replays every retained record, oldest first. Concurrent appends are not coordinated with the
+     * replay, so this is meant for startup, before anything is journaled.
+     */
+    public synchronized void replay(Listener listener) throws IOException {
+        for (Path path : listSegments(directory)) {
+            readSegment(path, listener);
+        }
+    }
+
+    /**
+     * Reads a single segment file, e.g. one copied off a node for offline analysis.
+     */
+    public static void readSegment(Path path, Listener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= Integer.BYTES) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                if (length <= 0 || start + length > buffer.limit()) {
+                    return;
+                }
+                try {
+                    byte type = buffer.get();
+                    long timestamp = buffer.getLong();
+                    String a = getString(buffer);
+                    String b = getString(buffer);
+                    String c = getString(buffer);
+                    String d = getString(buffer);
+                    if (type == REGISTER) {
+                        listener.onRegister(a, b, c, timestamp);
+                    } else if (type == TRANSITION) {
+                        listener.onTransition(a, b, c, d, timestamp);
+                    } else if (type == ACTIVE) {
+                        listener.onActive(a, b, c, timestamp);
+                    }
+                } catch (BufferUnderflowException e) {
+                    logger.warn("Truncated journal record at {} in {}", start, path);
+                    return;
+                }
+                buffer.position(start + length);
+            }
+        }
+    }
+
+    public static List<Path> listSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Starts the segment after {@code full}, unless another appender already has. Returns the
+     * segment to retry in, or null when a new segment could not be created.
+     */
+    private synchronized Segment roll(Segment full) {
+        if (current != full) {
+            return current;
+        }
+        Segment next;
+        try {
+            next = openSegment(full.index + 1);
+        } catch (IOException e) {
+            ioFailures.increment();
+            logger.warn("Failed to start transition journal segment {} in {}; dropping record",
+                full.index + 1, directory, e);
+            return null;
+        }
+        current = next;
+        try {
+            reemitter.execute(full.buffer::force);
+            if (Thread.currentThread() == reemitThread) {
+                // The re-emit itself filled a segment; another pass would only do the same
+                if (!warnedOversizedReemit) {
+                    warnedOversizedReemit = true;
+                    logger.warn("Active machine records no longer fit in one {} byte journal segment", segmentBytes);
+                }
+            } else if (reemitPending.compareAndSet(false, true)) {
+                reemitter.execute(this::reemit);
+            }
+        } catch (RejectedExecutionException e) {
+            // Closed, and close() forces the current segment
+            full.buffer.force();
+        }
+        return current;
+    }
+
+    private void reemit() {
+        reemitPending.set(false);
+        long firstKept = current.index;
+        Consumer<TransitionJournal> handler = rollHandler;
+        if (handler != null) {
+            try {
+                handler.accept(this);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to write active machines to new journal segment", e);
+            }
+        }
+        // Older segments are only dropped once the live machines are in a newer one
+        try {
+            applyRetention(firstKept);
+        } catch (IOException e) {
+            ioFailures.increment();
+            logger.warn("Failed to apply transition journal retention in {}", directory, e);
+        }
+    }
+
+    private Segment openSegment(long index) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes), index, 0);
+        }
+    }
+
+    private void applyRetention(long firstKept) throws IOException {
+        List<Path> segments = listSegments(directory);
+        List<Path> sealed = new ArrayList<>(segments);
+        sealed.removeIf(path -> segmentIndexOf(path) >= firstKept);
+        long total = (long) segments.size() * segmentBytes;
+        long oldestAllowed = System.currentTimeMillis() - maxAge.toMillis();
+        for (Path path : sealed) {
+            if (total <= maxTotalBytes && Files.getLastModifiedTime(path).toMillis() >= oldestAllowed) {
+                break;
+            }
+            Files.deleteIfExists(path);
+            total -= segmentBytes;
+            logger.info("Deleted transition journal segment {}", path);
+        }
+    }
+
+    private static long segmentIndexOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static byte[] encode(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static boolean tooLong(byte[] bytes) {
+        return bytes != null && bytes.length >= NULL_STRING;
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return Short.BYTES + (bytes != null ? bytes.length : 0);
+    }
+
+    private static int putString(ByteBuffer buffer, int position, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort(position, (short) NULL_STRING);
+            return position + Short.BYTES;
+        }
+        buffer.putShort(position, (short) bytes.length);
+        buffer.put(position + Short.BYTES, bytes);
+        return position + Short.BYTES + bytes.length;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long getIoFailureCount() { return ioFailures.sum(); }
+    public long getDroppedRecordCount() { return droppedRecords.sum(); }
+
+    @Override
+    public synchronized void close() {
+        reemitter.shutdownNow();
+        current.buffer.force();
+    }
+}
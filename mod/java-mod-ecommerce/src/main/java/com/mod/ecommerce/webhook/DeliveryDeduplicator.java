@@ -0,0 +1,130 @@
+package com.mod.ecommerce.webhook;
+
+import com.mod.ecommerce.database.DatabaseManager;
+import com.mod.ecommerce.database.Donation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recognises webhook deliveries that were already recorded, so provider retries do not create
+ * duplicate donations.
+ *
+ * Each delivery gets an idempotency key, stored under a unique index with the donation. Before
+ * that constraint is reached, a recent-key cache answers retries of recent deliveries from memory,
+ * and a Bloom filter holding every stored key lets a key it has never seen skip the database
+ * probe. Only keys the filter may have seen are looked up. The unique index stays the authority:
+ * a duplicate that slips past, e.g. two copies in flight at once, is skipped at insert.
+ */
+public class DeliveryDeduplicator {
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryDeduplicator.class);
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final DatabaseManager dbManager;
+    private final BloomFilter seen;
+    // Access-ordered LRU of recently recorded keys; guarded by itself
+    private final Map<String, Boolean> recent;
+
+    private final LongAdder recentHits = new LongAdder();
+    private final LongAdder probesSkipped = new LongAdder();
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder probeHits = new LongAdder();
+
+    /**
+     * Loads every stored key into the Bloom filter before returning.
+     *
+     * @param expectedKeys   keys the Bloom filter is sized for; past this it probes more often
+     * @param recentCapacity keys kept in the recent-key cache
+     */
+    public DeliveryDeduplicator(DatabaseManager dbManager, long expectedKeys, int recentCapacity) throws SQLException {
+        this.dbManager = dbManager;
+        this.seen = new BloomFilter(expectedKeys, FALSE_POSITIVE_RATE);
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > recentCapacity;
+            }
+        };
+        LongAdder loaded = new LongAdder();
+        dbManager.forEachIdempotencyKey(key -> {
+            seen.put(key);
+            loaded.increment();
+        });
+        logger.info("Loaded {} idempotency keys into the webhook dedup filter", loaded.sum());
+    }
+
+    /**
+     * Key for a delivery: its provider delivery id when it has one, otherwise a hash of the
+     * donation as the provider sent it. {@code sentTimestampMs} is the payload's timestamp, or null
+     * when it had none and the donation was stamped on arrival.
+     *
+     * Returns null when the delivery has neither: without a timestamp, two genuine donations with
+     * the same tipper, recipient and amount would hash alike, so such deliveries are not deduplicated.
+     */
+    public static String keyFor(String deliveryId, Donation donation, Long sentTimestampMs) {
+        if (deliveryId == null && sentTimestampMs == null) {
+            return null;
+        }
+        String source = deliveryId != null
+            ? "delivery\u0000" + deliveryId
+            : String.join("\u0000", "payload",
+                donation.getTipperName(),
+                donation.getRecipientAccount(),
+                donation.getAmount().stripTrailingZeros().toPlainString(),
+                donation.getCurrency(),
+                sentTimestampMs.toString(),
+                String.valueOf(donation.getTenantId()),
+                String.valueOf(donation.getWebhookTrackingParams()));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Whether a donation with this key is already stored.
+     */
+    public boolean isDuplicate(String key) throws SQLException {
+        synchronized (recent) {
+            if (recent.get(key) != null) {
+                recentHits.increment();
+                return true;
+            }
+        }
+        if (!seen.mightContain(key)) {
+            probesSkipped.increment();
+            return false;
+        }
+        probes.increment();
+        if (dbManager.findIdByIdempotencyKey(key).isPresent()) {
+            probeHits.increment();
+            remember(key);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a key whose donation has been stored.
+     */
+    public void remember(String key) {
+        seen.put(key);
+        synchronized (recent) {
+            recent.put(key, Boolean.TRUE);
+        }
+    }
+
+    public long getRecentHits() { return recentHits.sum(); }
+    public long getProbesSkipped() { return probesSkipped.sum(); }
+    public long getProbes() { return probes.sum(); }
+    public long getProbeHits() { return probeHits.sum(); }
+}
@@ -0,0 +1,215 @@
+package com.mod.ecommerce.webhook;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a Tip Top Jar webhook body in one pass over the raw bytes with the Jackson streaming API,
+ * without building a map or tree.
+ *
+ * Both key spellings the provider uses are recognised through one lookup table; where a payload
+ * carries both, the canonical spelling wins. {@code Amount} is read straight into a
+ * {@link BigDecimal} from its JSON text. {@code webhookTrackingParams} is copied byte for byte as
+ * raw JSON, picking up the delivery id on the way.
+ */
+public class TipTopJarPayloadParser {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    enum Field {
+        TIPPER_NAME, RECIPIENT_ACCOUNT, AMOUNT, CURRENCY, TIMESTAMP, TRACKING_PARAMS, TENANT_ID
+    }
+
+    // Canonical spelling first; each field remembers whether its value came from it
+    private static final Map<String, Field> CANONICAL_KEYS = Map.of(
+        "Tipper_Name", Field.TIPPER_NAME,
+        "Recipient_Account", Field.RECIPIENT_ACCOUNT,
+        "Amount", Field.AMOUNT,
+        "Currency", Field.CURRENCY,
+        "Timestamp", Field.TIMESTAMP,
+        "webhookTrackingParams", Field.TRACKING_PARAMS,
+        "tenant_id", Field.TENANT_ID
+    );
+    private static final Map<String, Field> ALTERNATE_KEYS = Map.of(
+        "tipper_name", Field.TIPPER_NAME,
+        "recipient_account", Field.RECIPIENT_ACCOUNT,
+        "amount", Field.AMOUNT,
+        "currency", Field.CURRENCY,
+        "timestamp", Field.TIMESTAMP,
+        "webhook_tracking_params", Field.TRACKING_PARAMS,
+        "tenantId", Field.TENANT_ID
+    );
+    private static final Map<String, Field> KEYS = new HashMap<>();
+    static {
+        KEYS.putAll(CANONICAL_KEYS);
+        KEYS.putAll(ALTERNATE_KEYS);
+    }
+
+    /**
+     * A parsed payload. Fields the payload did not carry are null.
+     */
+    public static class TipTopJarPayload {
+        private String tipperName;
+        private String recipientAccount;
+        private BigDecimal amount;
+        private String currency;
+        private Long timestampMs;
+        private String webhookTrackingParams;
+        private String deliveryId;
+        private String tenantId;
+        private int canonicalFields;
+
+        public String getTipperName() { return tipperName; }
+        public String getRecipientAccount() { return recipientAccount; }
+        public BigDecimal getAmount() { return amount; }
+        public String getCurrency() { return currency; }
+        public Long getTimestampMs() { return timestampMs; }
+        public String getWebhookTrackingParams() { return webhookTrackingParams; }
+        public String getDeliveryId() { return deliveryId; }
+        public String getTenantId() { return tenantId; }
+    }
+
+    /**
+     * Parses a payload body. Malformed JSON, a body that is not an object, or an {@code Amount}
+     * that is not a decimal number fails with a {@link JsonParseException}.
+     */
+    public TipTopJarPayload parse(byte[] body) throws IOException {
+        TipTopJarPayload payload = new TipTopJarPayload();
+        try (JsonParser parser = JSON.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Webhook payload must be a JSON object");
+            }
+            String name;
+            while ((name = parser.nextFieldName()) != null) {
+                JsonToken value = parser.nextToken();
+                Field field = KEYS.get(name);
+                boolean canonical = field != null && CANONICAL_KEYS.get(name) == field;
+                if (field == null || value == JsonToken.VALUE_NULL || !claim(payload, field, canonical)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                read(parser, value, field, body, payload);
+            }
+        }
+        return payload;
+    }
+
+    // Whether this key's value should be read: the first one seen, unless canonical overrides alternate
+    private static boolean claim(TipTopJarPayload payload, Field field, boolean canonical) {
+        int bit = 1 << field.ordinal();
+        if ((payload.canonicalFields & bit) != 0) {
+            return false;
+        }
+        if (canonical) {
+            payload.canonicalFields |= bit;
+            return true;
+        }
+        return !isSet(payload, field);
+    }
+
+    private static boolean isSet(TipTopJarPayload payload, Field field) {
+        switch (field) {
+            case TIPPER_NAME: return payload.tipperName != null;
+            case RECIPIENT_ACCOUNT: return payload.recipientAccount != null;
+            case AMOUNT: return payload.amount != null;
+            case CURRENCY: return payload.currency != null;
+            case TIMESTAMP: return payload.timestampMs != null;
+            case TRACKING_PARAMS: return payload.webhookTrackingParams != null;
+            case TENANT_ID: return payload.tenantId != null;
+            default: return false;
+        }
+    }
+
+    private static void read(JsonParser parser, JsonToken value, Field field, byte[] body, TipTopJarPayload payload)
+            throws IOException {
+        switch (field) {
+            case TIPPER_NAME:
+                payload.tipperName = scalarText(parser, value);
+                break;
+            case RECIPIENT_ACCOUNT:
+                payload.recipientAccount = scalarText(parser, value);
+                break;
+            case CURRENCY:
+                payload.currency = scalarText(parser, value);
+                break;
+            case TENANT_ID:
+                payload.tenantId = scalarText(parser, value);
+                break;
+            case AMOUNT:
+                payload.amount = decimal(parser, value);
+                break;
+            case TIMESTAMP:
+                // Only numeric timestamps are honoured; anything else means stamp on arrival
+                payload.timestampMs = value.isNumeric() ? parser.getValueAsLong() : null;
+                parser.skipChildren();
+                break;
+            case TRACKING_PARAMS:
+                copyTrackingParams(parser, value, body, payload);
+                break;
+            default:
+                parser.skipChildren();
+        }
+    }
+
+    private static String scalarText(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isScalarValue()) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static BigDecimal decimal(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isNumeric()) {
+            // Converted from the token text, never through a double
+            return parser.getDecimalValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return new BigDecimal(parser.getText().trim());
+            } catch (NumberFormatException e) {
+                throw new JsonParseException(parser, "Amount is not a decimal number", e);
+            }
+        }
+        throw new JsonParseException(parser, "Amount is not a decimal number");
+    }
+
+    // Slices the subtree's bytes out of the body; a top-level deliveryId is read on the way through
+    private static void copyTrackingParams(JsonParser parser, JsonToken value, byte[] body, TipTopJarPayload payload)
+            throws IOException {
+        int start = (int) parser.getTokenLocation().getByteOffset();
+        payload.deliveryId = null;
+        if (value == JsonToken.START_OBJECT) {
+            int depth = 1;
+            while (depth > 0) {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    depth++;
+                } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                    depth--;
+                } else if (depth == 1 && token == JsonToken.FIELD_NAME
+                        && payload.deliveryId == null
+                        && ("deliveryId".equals(parser.getCurrentName()) || "delivery_id".equals(parser.getCurrentName()))) {
+                    JsonToken id = parser.nextToken();
+                    if (id.isScalarValue() && id != JsonToken.VALUE_NULL) {
+                        payload.deliveryId = parser.getText();
+                    } else if (id == JsonToken.START_OBJECT || id == JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        } else {
+            parser.skipChildren();
+            // Strings are decoded lazily; finish so the location is past the closing quote
+            parser.finishToken();
+        }
+        int end = (int) parser.getCurrentLocation().getByteOffset();
+        payload.webhookTrackingParams = new String(body, start, end - start, StandardCharsets.UTF_8);
+    }
+}
@@ -1,49 +1,54 @@
 package com.mod.ecommerce.webhook;
 
-import com.mod.ecommerce.database.DatabaseManager;
 import com.mod.ecommerce.database.Donation;
+import com.mod.ecommerce.database.DonationIngester;
 import io.javalin.http.Context;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.math.BigDecimal;
-import java.sql.SQLException;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class TipTopJarWebhookHandler {
     private static final Logger logger = LoggerFactory.getLogger(TipTopJarWebhookHandler.class);
-    private final DatabaseManager dbManager;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Map<String, Object> DUPLICATE_RESPONSE =
+        Map.of("success", true, "duplicate", true, "message", "Donation already recorded");
+    // Column limits of the donations table; a value past them would be rejected when applied
+    private static final int MAX_TEXT_LENGTH = 255;
+    private static final int MAX_CURRENCY_LENGTH = 10;
+    private static final int AMOUNT_PRECISION = 18;
+    private static final int AMOUNT_SCALE = 2;
+    private final DonationIngester ingester;
+    private final DeliveryDeduplicator deduplicator;
+    private final TipTopJarPayloadParser parser = new TipTopJarPayloadParser();
     
-    public TipTopJarWebhookHandler(DatabaseManager dbManager) {
-        this.dbManager = dbManager;
+    public TipTopJarWebhookHandler(DonationIngester ingester, DeliveryDeduplicator deduplicator) {
+        this.ingester = ingester;
+        this.deduplicator = deduplicator;
     }
     
     public void handle(Context ctx) {
         try {
-            Map<String, Object> payload = objectMapper.readValue(ctx.body(), Map.class);
-            
-            // Extract Tip Top Jar fields (case-insensitive handling)
-            String tipperName = getString(payload, "Tipper_Name", "tipper_name");
-            String recipientAccount = getString(payload, "Recipient_Account", "recipient_account");
-            Object amountObj = payload.getOrDefault("Amount", payload.get("amount"));
-            String currency = getString(payload, "Currency", "currency");
-            Object timestampObj = payload.getOrDefault("Timestamp", payload.get("timestamp"));
-            String webhookTrackingParams = objectMapper.writeValueAsString(
-                payload.getOrDefault("webhookTrackingParams", payload.get("webhook_tracking_params"))
-            );
+            TipTopJarPayloadParser.TipTopJarPayload payload;
+            try {
+                payload = parser.parse(ctx.bodyAsBytes());
+            } catch (JsonProcessingException e) {
+                ctx.status(400).json(Map.of("error", "Invalid payload: " + e.getOriginalMessage()));
+                return;
+            }
             
-            if (tipperName == null || recipientAccount == null || amountObj == null) {
+            String tipperName = payload.getTipperName();
+            String recipientAccount = payload.getRecipientAccount();
+            BigDecimal amount = payload.getAmount();
+            if (tipperName == null || recipientAccount == null || amount == null) {
                 ctx.status(400).json(Map.of("error", "Missing required fields: Tipper_Name, Recipient_Account, Amount"));
                 return;
             }
             
-            BigDecimal amount = amountObj instanceof Number 
-                ? BigDecimal.valueOf(((Number) amountObj).doubleValue())
-                : new BigDecimal(amountObj.toString());
-            
-            long timestampMs = timestampObj instanceof Number
-                ? ((Number) timestampObj).longValue()
+            long timestampMs = payload.getTimestampMs() != null
+                ? payload.getTimestampMs()
                 : System.currentTimeMillis();
             
             // Create donation object
@@ -51,18 +56,54 @@ public class TipTopJarWebhookHandler {
             donation.setTipperName(tipperName);
             donation.setRecipientAccount(recipientAccount);
             donation.setAmount(amount);
-            donation.setCurrency(currency != null ? currency : "USD");
+            donation.setCurrency(payload.getCurrency() != null ? payload.getCurrency() : "USD");
             donation.setTimestampMs(timestampMs);
-            donation.setWebhookTrackingParams(webhookTrackingParams);
-            donation.setTenantId(getString(payload, "tenant_id", "tenantId"));
-            
-            // Store in database
-            dbManager.insertDonation(donation);
+            // Absent params have always been stored as the JSON literal null
+            donation.setWebhookTrackingParams(
+                payload.getWebhookTrackingParams() != null ? payload.getWebhookTrackingParams() : "null");
+            donation.setTenantId(payload.getTenantId());
+            String invalid = invalidField(donation);
+            if (invalid != null) {
+                ctx.status(400).json(Map.of("error", "Invalid payload: " + invalid));
+                return;
+            }
+            String idempotencyKey = DeliveryDeduplicator.keyFor(
+                payload.getDeliveryId(), donation, payload.getTimestampMs());
+            donation.setIdempotencyKey(idempotencyKey);
             
-            logger.info("Tip Top Jar webhook processed: {} donated {} {} to {}", 
-                tipperName, amount, donation.getCurrency(), recipientAccount);
+            // A retry of a delivery already recorded is acknowledged again without storing it;
+            // deliveries without a key are always stored
+            if (idempotencyKey != null && deduplicator.isDuplicate(idempotencyKey)) {
+                logger.debug("Duplicate Tip Top Jar delivery {} acknowledged", idempotencyKey);
+                ctx.status(200).json(DUPLICATE_RESPONSE);
+                return;
+            }
             
-            ctx.status(200).json(Map.of("success", true, "message", "Donation recorded"));
+            // Acknowledge only once the donation is durable: committed, or forced to the ingest log
+            ctx.future(() -> ingester.submit(donation)
+                .thenAccept(stored -> {
+                    if (idempotencyKey != null) {
+                        deduplicator.remember(idempotencyKey);
+                    }
+                    if (!stored) {
+                        // Skipped at insert: another copy of the delivery was stored first
+                        ctx.status(200).json(DUPLICATE_RESPONSE);
+                        return;
+                    }
+                    logger.info("Tip Top Jar webhook processed: {} donated {} {} to {}", 
+                        tipperName, amount, donation.getCurrency(), recipientAccount);
+                    ctx.status(200).json(Map.of("success", true, "message", "Donation recorded"));
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof RejectedExecutionException) {
+                        ctx.status(503).header("Retry-After", "1").json(Map.of("error", "Server busy, retry shortly"));
+                    } else {
+                        logger.error("Error storing Tip Top Jar donation", cause);
+                        ctx.status(500).json(Map.of("error", "Internal server error"));
+                    }
+                    return null;
+                }));
             
         } catch (Exception e) {
             logger.error("Error processing Tip Top Jar webhook", e);
@@ -70,12 +111,26 @@ public class TipTopJarWebhookHandler {
         }
     }
     
-    private String getString(Map<String, Object> map, String... keys) {
-        for (String key : keys) {
-            Object value = map.get(key);
-            if (value != null) {
-                return value.toString();
-            }
+    // Checked before the donation is acknowledged, since the ingest log may only apply it later
+    private static String invalidField(Donation donation) {
+        if (donation.getTipperName().length() > MAX_TEXT_LENGTH) {
+            return "Tipper_Name is longer than " + MAX_TEXT_LENGTH + " characters";
+        }
+        if (donation.getRecipientAccount().length() > MAX_TEXT_LENGTH) {
+            return "Recipient_Account is longer than " + MAX_TEXT_LENGTH + " characters";
+        }
+        if (donation.getCurrency().length() > MAX_CURRENCY_LENGTH) {
+            return "Currency is longer than " + MAX_CURRENCY_LENGTH + " characters";
+        }
+        if (donation.getTenantId() != null && donation.getTenantId().length() > MAX_TEXT_LENGTH) {
+            return "tenant_id is longer than " + MAX_TEXT_LENGTH + " characters";
+        }
+        BigDecimal amount = donation.getAmount().stripTrailingZeros();
+        if (amount.scale() > AMOUNT_SCALE) {
+            return "Amount has more than " + AMOUNT_SCALE + " decimal places";
+        }
+        if (amount.precision() - amount.scale() > AMOUNT_PRECISION - AMOUNT_SCALE) {
+            return "Amount has more than " + (AMOUNT_PRECISION - AMOUNT_SCALE) + " integer digits";
         }
         return null;
     }
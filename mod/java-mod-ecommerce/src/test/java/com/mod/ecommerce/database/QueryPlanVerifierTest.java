@@ -0,0 +1,78 @@
+package com.mod.ecommerce.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the hot donation queries use the indexes they were tuned for, on a freshly migrated
+ * schema and on one seeded with a realistic mix of redeemed and unredeemed donations.
+ */
+class QueryPlanVerifierTest {
+    private static final int TIPPERS = 200;
+    private static final int DONATIONS_PER_TIPPER = 25;
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void migrate() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:plans-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+            "sa", "", 2, Duration.ofSeconds(5), Duration.ofSeconds(30));
+        new SchemaMigrator(pool).migrate();
+    }
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    @Test
+    void hotQueriesUseTheirIndexesOnAnEmptySchema() throws SQLException {
+        assertEquals(List.of(), new QueryPlanVerifier(pool).verify(DatabaseManager.HOT_QUERIES));
+    }
+
+    @Test
+    void hotQueriesUseTheirIndexesOnSeededData() throws SQLException {
+        seed();
+        assertEquals(List.of(), new QueryPlanVerifier(pool).verify(DatabaseManager.HOT_QUERIES));
+    }
+
+    // Most donations are redeemed, as in production, so "redeemed_at IS NULL" alone is selective
+    private void seed() throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.acquire()) {
+            try (PreparedStatement insert = conn.getConnection().prepareStatement("""
+                    INSERT INTO donations (
+                        tipper_name, recipient_account, amount, currency, timestamp_ms,
+                        redeemed_at, redeemed_by_name, idempotency_key
+                    ) VALUES (?, ?, 5.00, 'USD', ?, ?, ?, ?)
+                    """)) {
+                long timestamp = 1_700_000_000_000L;
+                for (int tipper = 0; tipper < TIPPERS; tipper++) {
+                    for (int i = 0; i < DONATIONS_PER_TIPPER; i++) {
+                        boolean redeemed = i < DONATIONS_PER_TIPPER - 2;
+                        insert.setString(1, "tipper-" + tipper);
+                        insert.setString(2, "recipient-" + (tipper % 10));
+                        insert.setLong(3, timestamp++);
+                        insert.setTimestamp(4, redeemed ? new Timestamp(timestamp) : null);
+                        insert.setString(5, redeemed ? "tipper-" + tipper : null);
+                        insert.setString(6, "key-" + tipper + "-" + i);
+                        insert.addBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            try (Statement analyze = conn.getConnection().createStatement()) {
+                analyze.execute("ANALYZE");
+            }
+        }
+    }
+}